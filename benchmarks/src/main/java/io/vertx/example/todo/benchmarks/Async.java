@@ -0,0 +1,59 @@
+package io.vertx.example.todo.benchmarks;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.Handler;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+/**
+ * Blocks a benchmark thread on an asynchronous vert.x operation.
+ */
+final class Async {
+
+    private static final long TIMEOUT_SECONDS = 60;
+
+    private Async() {
+    }
+
+    static <T> T await(Consumer<Handler<AsyncResult<T>>> operation) throws Exception {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        operation.accept(result -> {
+            if (result.succeeded()) {
+                future.complete(result.result());
+            } else {
+                future.completeExceptionally(result.cause());
+            }
+        });
+        return get(future);
+    }
+
+    /*
+     * Runs the operation on the given context, so clients bound to that context are only used from its thread
+     */
+    static <T> T awaitOn(Context context, Consumer<Handler<T>> operation) throws Exception {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        context.runOnContext(v -> {
+            try {
+                operation.accept(future::complete);
+            } catch (RuntimeException e) {
+                future.completeExceptionally(e);
+            }
+        });
+        return get(future);
+    }
+
+    static <T> T get(CompletableFuture<T> future) throws Exception {
+        try {
+            return future.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        } catch (TimeoutException e) {
+            throw new IllegalStateException("No reply within " + TIMEOUT_SECONDS + "s", e);
+        }
+    }
+}
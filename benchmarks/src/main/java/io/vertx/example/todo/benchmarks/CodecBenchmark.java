@@ -0,0 +1,73 @@
+package io.vertx.example.todo.benchmarks;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.Json;
+import io.vertx.core.json.JsonObject;
+import io.vertx.example.todo.domain.ToDoItem;
+import io.vertx.example.todo.domain.ToDoItemCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JSON encoding and decoding of a single ToDoItem, with vert.x Json (reflection through Jackson databind)
+ * and with ToDoItemCodec.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+
+    private final String body = "{\"title\":\"Benchmark entry\",\"completed\":false,\"order\":7}";
+    private final Buffer bodyBuffer = Buffer.buffer(body);
+    private final ToDoItem item = Json.decodeValue(body, ToDoItem.class);
+    private final JsonObject hash = new JsonObject()
+        .put("title", "Benchmark entry")
+        .put("completed", "false")
+        .put("url", "http://localhost:8000/todo/7")
+        .put("order", "7");
+
+    @Benchmark
+    public ToDoItem decodeJson() {
+        return Json.decodeValue(bodyBuffer.toString(), ToDoItem.class);
+    }
+
+    @Benchmark
+    public ToDoItem decodeCodec() {
+        return ToDoItemCodec.decode(bodyBuffer);
+    }
+
+    @Benchmark
+    public Buffer encodeJson() {
+        return Buffer.buffer(Json.encode(item));
+    }
+
+    @Benchmark
+    public Buffer encodeCodec() {
+        return ToDoItemCodec.encode(item);
+    }
+
+    /*
+     * A redis hash to a response body, as GET /todo/:id did before the codec
+     */
+    @Benchmark
+    public Buffer hashJson() {
+        return Buffer.buffer(Json.encode(Json.decodeValue(hash.encode(), ToDoItem.class)));
+    }
+
+    @Benchmark
+    public Buffer hashCodec() {
+        return ToDoItemCodec.encode(ToDoItemCodec.fromHash(hash));
+    }
+}
@@ -0,0 +1,107 @@
+package io.vertx.example.todo.benchmarks;
+
+import io.vertx.core.Context;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.example.todo.utils.RedisUtils;
+import io.vertx.redis.RedisClient;
+import io.vertx.redis.RedisOptions;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import redis.embedded.RedisServer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RedisUtils.getHashes against embedded redis, reading lists of 10 to 100k todo hashes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GetHashesBenchmark {
+
+    private static final int REDIS_PORT = 6391;
+    private static final int SEED_BATCH = 1000;
+
+    @Param({"10", "100", "1000", "10000", "100000"})
+    public int size;
+
+    @Param({"100"})
+    public int batchSize;
+
+    @Param({"4"})
+    public int maxInFlight;
+
+    private RedisServer redisServer;
+    private Vertx vertx;
+    private Context context;
+    private RedisClient client;
+    private List<Object> keys;
+
+    @Setup
+    public void setUp() throws Exception {
+        redisServer = new RedisServer(REDIS_PORT);
+        redisServer.start();
+        vertx = Vertx.vertx();
+        context = vertx.getOrCreateContext();
+        client = Async.awaitOn(context, done ->
+            done.handle(RedisClient.create(vertx, new RedisOptions().setPort(REDIS_PORT).setTcpNoDelay(true))));
+
+        keys = new ArrayList<>(size);
+        for (int i = 1; i <= size; i++) {
+            keys.add(String.valueOf(i));
+        }
+        Async.<String>awaitOn(context, done -> client.flushdb(event -> done.handle(null)));
+        for (int from = 0; from < size; from += SEED_BATCH) {
+            int start = from;
+            Async.<Void>awaitOn(context, done -> seed(start, Math.min(start + SEED_BATCH, size), done));
+        }
+    }
+
+    /*
+     * Pipelines the HMSETs of one batch of hashes
+     */
+    private void seed(int from, int to, Handler<Void> done) {
+        int[] pending = {to - from};
+        for (int i = from; i < to; i++) {
+            JsonObject hash = new JsonObject()
+                .put("title", "Benchmark entry " + i)
+                .put("completed", "false")
+                .put("url", "http://localhost:8000/todo/" + keys.get(i))
+                .put("order", String.valueOf(i));
+            client.hmset(keys.get(i).toString(), hash, event -> {
+                if (--pending[0] == 0) {
+                    done.handle(null);
+                }
+            });
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        Async.<Void>await(handler -> vertx.close(handler));
+        redisServer.stop();
+    }
+
+    @Benchmark
+    public JsonArray getHashes() throws Exception {
+        return Async.awaitOn(context, done -> RedisUtils.getHashes(client, keys, batchSize, maxInFlight, done));
+    }
+}
@@ -0,0 +1,189 @@
+package io.vertx.example.todo.benchmarks;
+
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.example.todo.verticles.ToDoVerticle;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import redis.embedded.RedisServer;
+
+import java.net.URI;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End to end throughput and latency of every route of ToDoVerticle, over HTTP against embedded redis.
+ * <p>
+ * Each benchmark thread keeps one request outstanding; raise concurrency with JMH's {@code -t}. Every
+ * benchmark gets a fresh server and database seeded with {@code items} todos, so routes that grow or
+ * clear the list do not affect the others. Routes that remove data create what they remove first, so
+ * {@code createAndDelete} and {@code createAndClear} measure two requests each.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class HttpRouteBenchmark {
+
+    private static final int HTTP_PORT = 8091;
+    private static final int REDIS_PORT = 6392;
+
+    private static final String ITEM = new JsonObject().put("title", "Benchmark entry").put("completed", false).encode();
+    private static final String PATCH = new JsonObject().put("completed", true).encode();
+    private static final String BULK;
+
+    static {
+        JsonArray bulk = new JsonArray();
+        for (int i = 0; i < 10; i++) {
+            bulk.add(new JsonObject().put("op", "create").put("item", new JsonObject(ITEM)));
+        }
+        BULK = bulk.encode();
+    }
+
+    @State(Scope.Benchmark)
+    public static class Server {
+
+        @Param({"100"})
+        public int items;
+
+        @Param({"false"})
+        public boolean cache;
+
+        Vertx vertx;
+        private RedisServer redisServer;
+
+        @Setup
+        public void setUp() throws Exception {
+            redisServer = new RedisServer(REDIS_PORT);
+            redisServer.start();
+            vertx = Vertx.vertx();
+            JsonObject config = new JsonObject()
+                .put("http.port", HTTP_PORT)
+                .put("redis.port", REDIS_PORT)
+                .put("todo.cache.enabled", cache);
+            Async.<String>await(handler -> vertx.deployVerticle(ToDoVerticle.class.getName(),
+                new DeploymentOptions().setConfig(config), handler));
+
+            Client seeder = new Client();
+            seeder.setUp(this);
+            seeder.send(HttpMethod.DELETE, "/todo", null);
+            for (int i = 0; i < items; i++) {
+                seeder.send(HttpMethod.POST, "/todo", ITEM);
+            }
+            seeder.tearDown();
+        }
+
+        @TearDown
+        public void tearDown() throws Exception {
+            Async.<Void>await(handler -> vertx.close(handler));
+            redisServer.stop();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Client {
+
+        private HttpClient httpClient;
+
+        @Setup
+        public void setUp(Server server) {
+            httpClient = server.vertx.createHttpClient(new HttpClientOptions()
+                .setDefaultPort(HTTP_PORT)
+                .setKeepAlive(true)
+                .setMaxPoolSize(1));
+        }
+
+        @TearDown
+        public void tearDown() {
+            httpClient.close();
+        }
+
+        /*
+         * Sends one request and waits for its whole body; error statuses fail the benchmark
+         */
+        Buffer send(HttpMethod method, String uri, String body) throws Exception {
+            CompletableFuture<Buffer> future = new CompletableFuture<>();
+            httpClient.request(method, uri, response -> response.bodyHandler(responseBody -> {
+                if (response.statusCode() >= 400) {
+                    future.completeExceptionally(new IllegalStateException(
+                        method + " " + uri + " answered " + response.statusCode()));
+                } else {
+                    future.complete(responseBody);
+                }
+            })).exceptionHandler(future::completeExceptionally).end(body == null ? "" : body);
+            return Async.get(future);
+        }
+
+        String create() throws Exception {
+            return URI.create(send(HttpMethod.POST, "/todo", ITEM).toJsonObject().getString("url")).getPath();
+        }
+    }
+
+    @Benchmark
+    public Buffer getAll(Client client) throws Exception {
+        return client.send(HttpMethod.GET, "/todo", null);
+    }
+
+    @Benchmark
+    public Buffer getPage(Client client) throws Exception {
+        return client.send(HttpMethod.GET, "/todo?limit=10", null);
+    }
+
+    @Benchmark
+    public Buffer getOne(Client client) throws Exception {
+        return client.send(HttpMethod.GET, "/todo/1", null);
+    }
+
+    @Benchmark
+    public Buffer create(Client client) throws Exception {
+        return client.send(HttpMethod.POST, "/todo", ITEM);
+    }
+
+    @Benchmark
+    public Buffer update(Client client) throws Exception {
+        return client.send(HttpMethod.PATCH, "/todo/1", PATCH);
+    }
+
+    @Benchmark
+    public Buffer replace(Client client) throws Exception {
+        return client.send(HttpMethod.PUT, "/todo/1", ITEM);
+    }
+
+    @Benchmark
+    public Buffer createAndDelete(Client client) throws Exception {
+        return client.send(HttpMethod.DELETE, client.create(), null);
+    }
+
+    @Benchmark
+    public Buffer createAndClear(Client client) throws Exception {
+        client.create();
+        return client.send(HttpMethod.DELETE, "/todo", null);
+    }
+
+    @Benchmark
+    public Buffer bulk(Client client) throws Exception {
+        return client.send(HttpMethod.POST, "/todo/_bulk", BULK);
+    }
+
+    @Benchmark
+    public Buffer cacheStats(Client client) throws Exception {
+        return client.send(HttpMethod.GET, "/stats/cache", null);
+    }
+}
@@ -0,0 +1,37 @@
+package io.vertx.example.todo;
+
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Launcher;
+
+import java.util.Arrays;
+
+/**
+ * Launcher deploying one ToDoVerticle instance per core, so every event loop serves requests.
+ * <p>
+ * The instance count can be set with {@code -Dtodo.instances=N} or the launcher's own {@code -instances N}.
+ */
+public class ToDoLauncher extends Launcher {
+
+    // an explicit -instances 1 cannot be told apart from the default once parsed, so the flag is looked for
+    private boolean instancesGiven;
+
+    public static void main(String[] args) {
+        new ToDoLauncher().dispatch(args);
+    }
+
+    @Override
+    public void dispatch(String[] args) {
+        instancesGiven = Arrays.stream(args).anyMatch(arg -> arg.matches("--?instances(=.*)?"));
+        super.dispatch(args);
+    }
+
+    @Override
+    public void beforeDeployingVerticle(DeploymentOptions deploymentOptions) {
+        Integer instances = Integer.getInteger("todo.instances");
+        if (instances != null) {
+            deploymentOptions.setInstances(instances);
+        } else if (!instancesGiven) {
+            deploymentOptions.setInstances(Runtime.getRuntime().availableProcessors());
+        }
+    }
+}
@@ -0,0 +1,301 @@
+package io.vertx.example.todo.domain;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.EncodeException;
+import io.vertx.core.json.JsonObject;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads and writes ToDoItem JSON with the Jackson streaming API, straight from and into vert.x buffers.
+ * <p>
+ * Unlike Json.decodeValue / Json.encode there is no intermediate String, JsonObject or reflection, and the
+ * Jackson parser and generator recycle their internal buffers. The JSON written is the same as Json.encode:
+ * title, completed, url and order, nulls included.
+ */
+public final class ToDoItemCodec {
+
+    // no separator between root level values, so array elements can be written one at a time
+    private static final JsonFactory FACTORY = new JsonFactory().setRootValueSeparator(null);
+
+    private static final String TITLE = "title";
+    private static final String COMPLETED = "completed";
+    private static final String URL = "url";
+    private static final String ORDER = "order";
+
+    // packed format: a flag byte, the order if any, then the length prefixed UTF-8 title if any
+    private static final int PACKED_VERSION = 0x10;
+    private static final int PACKED_COMPLETED = 0x01;
+    private static final int PACKED_HAS_ORDER = 0x02;
+    private static final int PACKED_HAS_TITLE = 0x04;
+    private static final int PACKED_FLAGS = 0x07;
+    // varints carry 6 bits per byte with 0x40 as continuation bit, so every byte but the title's stays below 0x80
+    private static final int VARINT_BITS = 6;
+    private static final int VARINT_MASK = 0x3f;
+    private static final int VARINT_MORE = 0x40;
+
+    private ToDoItemCodec() {
+    }
+
+    /*
+     * Decodes a request body. Unknown fields are skipped, an object or array as the value of a known one is rejected.
+     */
+    public static ToDoItem decode(Buffer buffer) {
+        try (JsonParser parser = createParser(buffer)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new DecodeException("Expected a JSON object");
+            }
+            ToDoItem item = new ToDoItem();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if (value != null && value.isStructStart() && isField(field)) {
+                    throw new DecodeException("Expected a value for " + field);
+                }
+                switch (field) {
+                    case TITLE:
+                        item.setTitle(value == JsonToken.VALUE_NULL ? null : parser.getValueAsString());
+                        break;
+                    case COMPLETED:
+                        item.setCompleted(parser.getValueAsBoolean());
+                        break;
+                    case URL:
+                        item.setUrl(value == JsonToken.VALUE_NULL ? null : parser.getValueAsString());
+                        break;
+                    case ORDER:
+                        item.setOrder(value == JsonToken.VALUE_NULL ? null : parser.getValueAsInt());
+                        break;
+                    default:
+                        parser.skipChildren();
+                }
+            }
+            return item;
+        } catch (IOException e) {
+            throw new DecodeException("Failed to decode todo: " + e.getMessage());
+        }
+    }
+
+    private static boolean isField(String field) {
+        return TITLE.equals(field) || COMPLETED.equals(field) || URL.equals(field) || ORDER.equals(field);
+    }
+
+    /*
+     * Builds an item from the string fields of its redis hash, as returned by HGETALL
+     */
+    public static ToDoItem fromHash(JsonObject hash) {
+        ToDoItem item = new ToDoItem();
+        item.setTitle(stringValue(hash.getValue(TITLE)));
+        item.setCompleted(Boolean.parseBoolean(String.valueOf(hash.getValue(COMPLETED))));
+        item.setUrl(stringValue(hash.getValue(URL)));
+        item.setOrder(parseOrder(hash.getValue(ORDER)));
+        return item;
+    }
+
+    public static Buffer encode(ToDoItem item) {
+        Buffer buffer = Buffer.buffer(128);
+        encode(item, buffer);
+        return buffer;
+    }
+
+    /*
+     * Appends the JSON of the item to the buffer
+     */
+    public static void encode(ToDoItem item, Buffer buffer) {
+        try (JsonGenerator generator = FACTORY.createGenerator(new BufferOutputStream(buffer))) {
+            write(item, generator);
+        } catch (IOException e) {
+            throw new EncodeException("Failed to encode todo: " + e.getMessage());
+        }
+    }
+
+    /*
+     * Encodes the redis hashes of a list of items as a JSON array, skipping nothing: a missing hash is
+     * written as null, as Json.encode would have done.
+     */
+    public static Buffer encodeHashes(Iterable<?> hashes) {
+        Buffer buffer = Buffer.buffer(1024);
+        try (JsonGenerator generator = FACTORY.createGenerator(new BufferOutputStream(buffer))) {
+            generator.writeStartArray();
+            for (Object hash : hashes) {
+                writeHash(hash, generator);
+            }
+            generator.writeEndArray();
+        } catch (IOException e) {
+            throw new EncodeException("Failed to encode todos: " + e.getMessage());
+        }
+        return buffer;
+    }
+
+    /*
+     * Appends the JSON of each hash to the buffer, every one preceded by a comma except the very first
+     * element of the array. Used to write a list one chunk at a time.
+     */
+    public static void appendHashes(Iterable<?> hashes, boolean first, Buffer buffer) {
+        try (JsonGenerator generator = FACTORY.createGenerator(new BufferOutputStream(buffer))) {
+            for (Object hash : hashes) {
+                if (!first) {
+                    generator.writeRaw(',');
+                }
+                writeHash(hash, generator);
+                first = false;
+            }
+        } catch (IOException e) {
+            throw new EncodeException("Failed to encode todos: " + e.getMessage());
+        }
+    }
+
+    private static void writeHash(Object hash, JsonGenerator generator) throws IOException {
+        if (hash instanceof JsonObject) {
+            write(fromHash((JsonObject) hash), generator);
+        } else {
+            generator.writeNull();
+        }
+    }
+
+    private static void write(ToDoItem item, JsonGenerator generator) throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField(TITLE, item.getTitle());
+        generator.writeBooleanField(COMPLETED, item.getCompleted());
+        generator.writeStringField(URL, item.getUrl());
+        if (item.getOrder() == null) {
+            generator.writeNullField(ORDER);
+        } else {
+            generator.writeNumberField(ORDER, item.getOrder());
+        }
+        generator.writeEndObject();
+    }
+
+    /*
+     * Packs an item into its compact storage form: the flag byte, the zigzag varint order when set and the title
+     * when set, as the varint length of its UTF-8 bytes followed by them. The url is not stored.
+     * <p>
+     * All bytes outside the title are below 0x80, so the packed value is valid UTF-8 and can travel as a String
+     * through the redis client, including as a script argument, and scripts can parse it.
+     */
+    public static String pack(ToDoItem item) {
+        StringBuilder packed = new StringBuilder(16 + (item.getTitle() == null ? 0 : item.getTitle().length()));
+        int flags = PACKED_VERSION;
+        if (item.getCompleted()) {
+            flags |= PACKED_COMPLETED;
+        }
+        if (item.getOrder() != null) {
+            flags |= PACKED_HAS_ORDER;
+        }
+        if (item.getTitle() != null) {
+            flags |= PACKED_HAS_TITLE;
+        }
+        packed.append((char) flags);
+        if (item.getOrder() != null) {
+            int order = item.getOrder();
+            appendVarint(packed, ((long) order << 1) ^ (order >> 31));
+        }
+        if (item.getTitle() != null) {
+            appendVarint(packed, item.getTitle().getBytes(StandardCharsets.UTF_8).length);
+            packed.append(item.getTitle());
+        }
+        return packed.toString();
+    }
+
+    /*
+     * Reads an item from its compact storage form, without url. Throws DecodeException for malformed input.
+     */
+    public static ToDoItem unpack(Buffer packed) {
+        ToDoItem item = new ToDoItem();
+        try {
+            int flags = packed.getByte(0);
+            if ((flags & ~PACKED_FLAGS) != PACKED_VERSION) {
+                throw new DecodeException("Unknown packed todo format: " + flags);
+            }
+            int[] position = {1};
+            item.setCompleted((flags & PACKED_COMPLETED) != 0);
+            if ((flags & PACKED_HAS_ORDER) != 0) {
+                long zigzag = readVarint(packed, position);
+                item.setOrder((int) ((zigzag >>> 1) ^ -(zigzag & 1)));
+            }
+            if ((flags & PACKED_HAS_TITLE) != 0) {
+                int length = (int) readVarint(packed, position);
+                item.setTitle(packed.getString(position[0], position[0] + length, StandardCharsets.UTF_8.name()));
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new DecodeException("Truncated packed todo");
+        }
+        return item;
+    }
+
+    private static void appendVarint(StringBuilder packed, long value) {
+        while (value > VARINT_MASK) {
+            packed.append((char) (VARINT_MORE | (value & VARINT_MASK)));
+            value >>>= VARINT_BITS;
+        }
+        packed.append((char) value);
+    }
+
+    private static long readVarint(Buffer packed, int[] position) {
+        long value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = packed.getByte(position[0]++);
+            value |= (long) (b & VARINT_MASK) << shift;
+            shift += VARINT_BITS;
+        } while ((b & VARINT_MORE) != 0);
+        return value;
+    }
+
+    private static String stringValue(Object value) {
+        return value == null ? null : value.toString();
+    }
+
+    private static Integer parseOrder(Object order) {
+        if (order instanceof Number) {
+            return ((Number) order).intValue();
+        }
+        if (order == null) {
+            return null;
+        }
+        try {
+            return Integer.valueOf(order.toString());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static JsonParser createParser(Buffer buffer) throws IOException {
+        ByteBuf byteBuf = buffer.getByteBuf();
+        if (byteBuf.hasArray()) {
+            return FACTORY.createParser(byteBuf.array(), byteBuf.arrayOffset() + byteBuf.readerIndex(),
+                byteBuf.readableBytes());
+        }
+        return FACTORY.createParser(new ByteBufInputStream(byteBuf));
+    }
+
+    /*
+     * Lets the generator flush its recycled internal buffer straight into a vert.x buffer
+     */
+    private static final class BufferOutputStream extends OutputStream {
+        private final Buffer buffer;
+
+        BufferOutputStream(Buffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public void write(int b) {
+            buffer.appendByte((byte) b);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) {
+            buffer.appendBytes(bytes, offset, length);
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package io.vertx.example.todo.utils;
+
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonObject;
+import io.vertx.redis.RedisClient;
+
+/**
+ * Reads the hash of one key for a RedisHashReader; a failed read is handed as null.
+ * <p>
+ * Every call is made right after the previous one, so sources sending a single command per key are pipelined.
+ */
+@FunctionalInterface
+public interface HashSource {
+
+    Metrics.Command HGETALL = Metrics.command("HGETALL");
+
+    void read(String key, Handler<JsonObject> onHash);
+
+    /*
+     * Plain HGETALL of every key
+     */
+    static HashSource hgetall(RedisClient client) {
+        return (key, onHash) -> client.hgetall(key, HGETALL.time(event -> onHash.handle(event.result())));
+    }
+}
@@ -0,0 +1,77 @@
+package io.vertx.example.todo.utils;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of non-negative longs, safe to record into from any number of event loops.
+ * <p>
+ * Values fall into log-linear buckets, four per power of two, so a quantile is reported within 25% of the true
+ * value whatever the range. Recording is one array increment and one LongAdder update, without allocation.
+ */
+public class Histogram {
+
+    private static final int SUB_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(64 << SUB_BITS);
+    private final LongAdder sum = new LongAdder();
+
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts.incrementAndGet(index(value));
+        sum.add(value);
+    }
+
+    public long sum() {
+        return sum.sum();
+    }
+
+    public long count() {
+        long count = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    /*
+     * Upper bound of the bucket holding the given quantile, or 0 when nothing was recorded
+     */
+    public long quantile(double quantile) {
+        long count = count();
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return upperBound(i);
+            }
+        }
+        return upperBound(counts.length() - 1);
+    }
+
+    static int index(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return ((exponent - SUB_BITS + 1) << SUB_BITS) + sub;
+    }
+
+    static long upperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = (index >> SUB_BITS) + SUB_BITS - 1;
+        int sub = index & (SUB_BUCKETS - 1);
+        long bound = ((long) (SUB_BUCKETS + sub + 1) << (exponent - SUB_BITS)) - 1;
+        return bound < 0 ? Long.MAX_VALUE : bound;
+    }
+}
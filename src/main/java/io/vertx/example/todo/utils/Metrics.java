@@ -0,0 +1,192 @@
+package io.vertx.example.todo.utils;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.http.HttpServerResponse;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Request and redis command metrics of all verticle instances in this JVM, written in the Prometheus text format.
+ * <p>
+ * Recorders are looked up once, when routes and scripts are set up, and hold only Histograms and LongAdders, so
+ * recording on the event loop takes no lock. Quantiles are computed from the histograms when metrics are scraped.
+ */
+public final class Metrics {
+
+    private static final double[] QUANTILES = {0.5, 0.99, 0.999};
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    private static final Map<String, Route> ROUTES = new ConcurrentSkipListMap<>();
+    private static final Map<String, Command> COMMANDS = new ConcurrentSkipListMap<>();
+    private static final LongAdder PENDING_COMMANDS = new LongAdder();
+
+    private Metrics() {
+    }
+
+    /*
+     * Recorder of one route, named like "GET /todo/:id"
+     */
+    public static Route route(String name) {
+        return ROUTES.computeIfAbsent(name, Route::new);
+    }
+
+    /*
+     * Recorder of one redis command, like "HGETALL", or "EVALSHA create" for a script
+     */
+    public static Command command(String name) {
+        return COMMANDS.computeIfAbsent(name, Command::new);
+    }
+
+    /*
+     * Redis commands sent by any verticle instance and not yet answered
+     */
+    public static long pendingCommands() {
+        return PENDING_COMMANDS.sum();
+    }
+
+    public static String scrape() {
+        StringBuilder out = new StringBuilder(4096);
+
+        header(out, "todo_http_request_duration_seconds", "summary", "Time from routing a request to the end of its response");
+        ROUTES.values().forEach(route -> summary(out, "todo_http_request_duration_seconds", route.labels,
+            route.latency, NANOS_PER_SECOND));
+        header(out, "todo_http_response_size_bytes", "summary", "Bytes written in response bodies");
+        ROUTES.values().forEach(route -> summary(out, "todo_http_response_size_bytes", route.labels, route.size, 1));
+        header(out, "todo_http_requests_in_flight", "gauge", "Requests routed but not yet answered");
+        ROUTES.values().forEach(route -> sample(out, "todo_http_requests_in_flight", route.labels, route.inFlight.sum()));
+        header(out, "todo_http_responses_total", "counter", "Responses by status class; aborted when the connection closed first");
+        ROUTES.values().forEach(route -> {
+            for (int i = 1; i < route.statuses.length; i++) {
+                sample(out, "todo_http_responses_total", route.labels + ",status=\"" + i + "xx\"", route.statuses[i].sum());
+            }
+            sample(out, "todo_http_responses_total", route.labels + ",status=\"aborted\"", route.statuses[0].sum());
+        });
+        header(out, "todo_http_requests_shed_total", "counter", "Requests answered 503 as the server was overloaded");
+        ROUTES.values().forEach(route -> sample(out, "todo_http_requests_shed_total", route.labels, route.shed.sum()));
+
+        header(out, "todo_redis_command_duration_seconds", "summary", "Time from sending a redis command to its reply");
+        COMMANDS.values().forEach(command -> summary(out, "todo_redis_command_duration_seconds", command.labels,
+            command.latency, NANOS_PER_SECOND));
+        header(out, "todo_redis_command_errors_total", "counter", "Redis commands answered with an error");
+        COMMANDS.values().forEach(command -> sample(out, "todo_redis_command_errors_total", command.labels,
+            command.errors.sum()));
+        header(out, "todo_redis_commands_pending", "gauge", "Redis commands sent and awaiting their reply");
+        sample(out, "todo_redis_commands_pending", "", PENDING_COMMANDS.sum());
+        return out.toString();
+    }
+
+    private static void header(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void summary(StringBuilder out, String name, String labels, Histogram histogram, double unit) {
+        for (double quantile : QUANTILES) {
+            sample(out, name, labels + ",quantile=\"" + quantile + "\"", histogram.quantile(quantile) / unit);
+        }
+        sample(out, name + "_sum", labels, histogram.sum() / unit);
+        sample(out, name + "_count", labels, histogram.count());
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, double value) {
+        out.append(name).append('{').append(labels).append("} ");
+        if (value == Math.rint(value)) {
+            out.append((long) value);
+        } else {
+            out.append(value);
+        }
+        out.append('\n');
+    }
+
+    private static String label(String name, String value) {
+        return name + "=\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    public static final class Route {
+        private final String labels;
+        private final Histogram latency = new Histogram();
+        private final Histogram size = new Histogram();
+        private final LongAdder inFlight = new LongAdder();
+        private final LongAdder shed = new LongAdder();
+        // index 0 counts aborted requests, 1 to 5 the status classes
+        private final LongAdder[] statuses = new LongAdder[6];
+
+        private Route(String name) {
+            labels = label("route", name);
+            for (int i = 0; i < statuses.length; i++) {
+                statuses[i] = new LongAdder();
+            }
+        }
+
+        /*
+         * Starts timing a request, ending it when the response body has been written or the connection closed,
+         * whichever comes first, and then running onEnd. Returns the close handler, which a route replacing the
+         * response's closeHandler must call itself.
+         */
+        public Handler<Void> begin(HttpServerResponse response, Runnable onEnd) {
+            inFlight.increment();
+            long start = System.nanoTime();
+            boolean[] ended = {false};
+            Handler<Void> onClose = v -> {
+                if (!ended[0]) {
+                    ended[0] = true;
+                    inFlight.decrement();
+                    statuses[0].increment();
+                    onEnd.run();
+                }
+            };
+            response.bodyEndHandler(v -> {
+                if (!ended[0]) {
+                    ended[0] = true;
+                    inFlight.decrement();
+                    end(response, start);
+                    onEnd.run();
+                }
+            }).closeHandler(onClose);
+            return onClose;
+        }
+
+        /*
+         * Counts a request refused without being handled; it is timed like any other
+         */
+        public void shed() {
+            shed.increment();
+        }
+
+        private void end(HttpServerResponse response, long start) {
+            latency.record(System.nanoTime() - start);
+            size.record(response.bytesWritten());
+            int statusClass = response.getStatusCode() / 100;
+            statuses[statusClass >= 1 && statusClass <= 5 ? statusClass : 5].increment();
+        }
+    }
+
+    public static final class Command {
+        private final String labels;
+        private final Histogram latency = new Histogram();
+        private final LongAdder errors = new LongAdder();
+
+        private Command(String name) {
+            labels = label("command", name);
+        }
+
+        /*
+         * Wraps the reply handler of one command sent now
+         */
+        public <T> Handler<AsyncResult<T>> time(Handler<AsyncResult<T>> handler) {
+            long start = System.nanoTime();
+            PENDING_COMMANDS.increment();
+            return event -> {
+                PENDING_COMMANDS.decrement();
+                latency.record(System.nanoTime() - start);
+                if (event.failed()) {
+                    errors.increment();
+                }
+                handler.handle(event);
+            };
+        }
+    }
+}
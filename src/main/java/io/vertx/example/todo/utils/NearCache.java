@@ -0,0 +1,123 @@
+package io.vertx.example.todo.utils;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded in-process cache evicting the least recently used entry once full, and entries older than the TTL.
+ * <p>
+ * A cache belongs to a single verticle instance and is only touched from its event loop, so the map needs
+ * no locking; the counters may be read from any thread.
+ * <p>
+ * Values read from redis are stored with the generation observed before the read started. Any
+ * invalidation in between bumps the generation and the stale value is dropped instead of cached.
+ */
+public class NearCache<V> {
+
+    private static class Entry<V> {
+        final V value;
+        final long expiresAt;
+
+        Entry(V value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final int maxSize;
+    private final long ttlMillis;
+    private final LinkedHashMap<String, Entry<V>> entries;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    private long generation;
+
+    public NearCache(int maxSize, long ttlMillis) {
+        this.maxSize = maxSize;
+        this.ttlMillis = ttlMillis;
+        this.entries = new LinkedHashMap<String, Entry<V>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry<V>> eldest) {
+                if (size() > NearCache.this.maxSize) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /*
+     * Returns the cached value, or null when absent or expired
+     */
+    public V get(String key) {
+        Entry<V> entry = entries.get(key);
+        if (entry != null && entry.expiresAt <= System.currentTimeMillis()) {
+            entries.remove(key);
+            evictions.increment();
+            entry = null;
+        }
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return entry.value;
+    }
+
+    /*
+     * Generation to pass to put() for a value about to be read from redis
+     */
+    public long generation() {
+        return generation;
+    }
+
+    public void put(String key, V value, long readGeneration) {
+        if (readGeneration == generation && value != null) {
+            entries.put(key, new Entry<>(value, System.currentTimeMillis() + ttlMillis));
+        }
+    }
+
+    public void invalidate(String key) {
+        generation++;
+        entries.remove(key);
+    }
+
+    public void invalidateAll() {
+        generation++;
+        entries.clear();
+    }
+
+    /*
+     * Drops expired entries, so that an idle cache does not hold on to them until they are next read
+     */
+    public void expire() {
+        long now = System.currentTimeMillis();
+        for (Iterator<Entry<V>> it = entries.values().iterator(); it.hasNext(); ) {
+            if (it.next().expiresAt <= now) {
+                it.remove();
+                evictions.increment();
+            }
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public long evictions() {
+        return evictions.sum();
+    }
+}
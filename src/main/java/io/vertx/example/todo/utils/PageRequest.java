@@ -0,0 +1,93 @@
+package io.vertx.example.todo.utils;
+
+import io.vertx.core.http.HttpServerRequest;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Window of the todolist asked for by the {@code limit} and {@code cursor} query parameters.
+ * <p>
+ * The cursor is an opaque token handed out with the previous page; clients only pass it back.
+ */
+public class PageRequest {
+
+    public static final String LIMIT_PARAM = "limit";
+    public static final String CURSOR_PARAM = "cursor";
+
+    private final long offset;
+    private final int limit;
+
+    private PageRequest(long offset, int limit) {
+        this.offset = offset;
+        this.limit = limit;
+    }
+
+    /*
+     * Parses the query parameters of the request. Without a limit the whole list is requested.
+     * Throws IllegalArgumentException for a malformed limit or cursor.
+     */
+    public static PageRequest from(HttpServerRequest request, int maxLimit) {
+        String limitParam = request.getParam(LIMIT_PARAM);
+        String cursorParam = request.getParam(CURSOR_PARAM);
+
+        int limit = 0;
+        if (limitParam != null) {
+            limit = parseInt(limitParam, "limit");
+            if (limit <= 0 || limit > maxLimit) {
+                throw new IllegalArgumentException("limit must be between 1 and " + maxLimit);
+            }
+        }
+        long offset = cursorParam == null ? 0 : decodeCursor(cursorParam);
+        return new PageRequest(offset, limit);
+    }
+
+    public boolean isPaged() {
+        return limit > 0;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    /*
+     * Last rank of the index to read. One item past the page is read to find out whether a next page exists.
+     */
+    public long getStop() {
+        return isPaged() ? offset + limit : -1;
+    }
+
+    public String nextCursor() {
+        return encodeCursor(offset + limit);
+    }
+
+    static String encodeCursor(long offset) {
+        return Base64.getUrlEncoder().withoutPadding()
+            .encodeToString(Long.toString(offset).getBytes(StandardCharsets.UTF_8));
+    }
+
+    static long decodeCursor(String cursor) {
+        long offset;
+        try {
+            offset = Long.parseLong(new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor, e);
+        }
+        if (offset < 0) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor);
+        }
+        return offset;
+    }
+
+    private static int parseInt(String value, String name) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " must be a number", e);
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package io.vertx.example.todo.utils;
+
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.streams.ReadStream;
+import io.vertx.redis.RedisClient;
+
+import java.util.List;
+
+/**
+ * Reads the hashes for a list of keys in bounded batches.
+ * <p>
+ * Every read of a batch (an HGETALL, unless another HashSource is given) is written to the connection without
+ * waiting for the previous reply, so the client pipelines them, and up to {@code maxInFlight} batches are
+ * outstanding at any time. Batches are
+ * handed to the handler in key order, whatever order their replies complete in.
+ * <p>
+ * While paused no batch is emitted and no new batch is sent, so at most {@code maxInFlight} batches are
+ * held in memory however long the key list is.
+ */
+public class RedisHashReader implements ReadStream<JsonArray> {
+
+    private final HashSource source;
+    private final List<Object> keys;
+    private final int batchSize;
+    private final int maxInFlight;
+    private final int batchCount;
+
+    private final JsonObject[][] batches;
+    private final int[] remaining;
+
+    private int nextToSend;
+    private int nextToEmit;
+    private int inFlight;
+    private boolean paused;
+    private boolean ended;
+
+    private Handler<JsonArray> handler;
+    private Handler<Void> endHandler;
+
+    public RedisHashReader(RedisClient client, List<Object> keys, int batchSize, int maxInFlight) {
+        this(HashSource.hgetall(client), keys, batchSize, maxInFlight);
+    }
+
+    public RedisHashReader(HashSource source, List<Object> keys, int batchSize, int maxInFlight) {
+        if (batchSize <= 0 || maxInFlight <= 0) {
+            throw new IllegalArgumentException("batchSize and maxInFlight must be positive");
+        }
+        this.source = source;
+        this.keys = keys;
+        this.batchSize = batchSize;
+        this.maxInFlight = maxInFlight;
+        this.batchCount = (keys.size() + batchSize - 1) / batchSize;
+        this.batches = new JsonObject[batchCount][];
+        this.remaining = new int[batchCount];
+    }
+
+    /*
+     * Handler receiving the hashes of one batch, in the same order as their keys.
+     */
+    @Override
+    public RedisHashReader handler(Handler<JsonArray> handler) {
+        this.handler = handler;
+        return this;
+    }
+
+    @Override
+    public RedisHashReader endHandler(Handler<Void> endHandler) {
+        this.endHandler = endHandler;
+        return this;
+    }
+
+    /*
+     * Failed reads are reported as null hashes, so there is nothing to hand to an exception handler.
+     */
+    @Override
+    public RedisHashReader exceptionHandler(Handler<Throwable> handler) {
+        return this;
+    }
+
+    @Override
+    public RedisHashReader pause() {
+        paused = true;
+        return this;
+    }
+
+    @Override
+    public RedisHashReader resume() {
+        if (paused) {
+            paused = false;
+            emitCompletedBatches();
+            sendBatches();
+        }
+        return this;
+    }
+
+    public void start() {
+        if (batchCount == 0) {
+            end();
+            return;
+        }
+        sendBatches();
+    }
+
+    private void sendBatches() {
+        while (!paused && inFlight < maxInFlight && nextToSend < batchCount) {
+            sendBatch(nextToSend++);
+        }
+    }
+
+    private void sendBatch(int batch) {
+        int from = batch * batchSize;
+        int to = Math.min(from + batchSize, keys.size());
+        JsonObject[] hashes = new JsonObject[to - from];
+
+        batches[batch] = hashes;
+        remaining[batch] = hashes.length;
+        inFlight++;
+
+        for (int i = from; i < to; i++) {
+            int slot = i - from;
+            source.read(keys.get(i).toString(), hash -> {
+                // a failed read leaves a null in its slot, like a missing hash would
+                hashes[slot] = hash;
+                if (--remaining[batch] == 0) {
+                    inFlight--;
+                    emitCompletedBatches();
+                    sendBatches();
+                }
+            });
+        }
+    }
+
+    private void emitCompletedBatches() {
+        while (!paused && nextToEmit < nextToSend && remaining[nextToEmit] == 0) {
+            JsonArray batch = new JsonArray();
+            for (JsonObject hash : batches[nextToEmit]) {
+                if (hash == null) {
+                    batch.addNull();
+                } else {
+                    batch.add(hash);
+                }
+            }
+            batches[nextToEmit++] = null;
+            if (handler != null) {
+                handler.handle(batch);
+            }
+        }
+        if (nextToEmit == batchCount) {
+            end();
+        }
+    }
+
+    private void end() {
+        if (ended) {
+            return;
+        }
+        ended = true;
+        if (endHandler != null) {
+            endHandler.handle(null);
+        }
+    }
+}
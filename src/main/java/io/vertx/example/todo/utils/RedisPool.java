@@ -0,0 +1,69 @@
+package io.vertx.example.todo.utils;
+
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.redis.RedisClient;
+import io.vertx.redis.RedisOptions;
+
+/**
+ * Fixed set of redis connections owned by one verticle instance, handed out round robin.
+ * <p>
+ * Each instance runs on its own event loop and creates its own pool, so connections are never shared across
+ * loops. Commands that must run on one connection, like MULTI ... EXEC, take a client once and keep using it.
+ */
+public class RedisPool {
+
+    private static final long CLOSE_TIMEOUT_MILLIS = 1000;
+
+    private final Vertx vertx;
+    private final RedisClient[] clients;
+    private int next;
+
+    public RedisPool(Vertx vertx, RedisOptions options, int size) {
+        this.vertx = vertx;
+        if (size <= 0) {
+            throw new IllegalArgumentException("Pool size must be positive");
+        }
+        clients = new RedisClient[size];
+        for (int i = 0; i < size; i++) {
+            clients[i] = RedisClient.create(vertx, options);
+        }
+    }
+
+    public RedisClient next() {
+        RedisClient client = clients[next];
+        next = (next + 1) % clients.length;
+        return client;
+    }
+
+    /*
+     * Client used for subscriptions, which need a stable connection
+     */
+    public RedisClient first() {
+        return clients[0];
+    }
+
+    public int size() {
+        return clients.length;
+    }
+
+    /*
+     * Closes every connection. The redis client never answers the close of a connection that failed to connect,
+     * e.g. while redis is down, so the pool is reported closed after CLOSE_TIMEOUT_MILLIS at most.
+     */
+    public void close(Handler<Void> onClosed) {
+        int[] remaining = {clients.length};
+        long timerId = vertx.setTimer(CLOSE_TIMEOUT_MILLIS, id -> {
+            remaining[0] = -1;
+            onClosed.handle(null);
+        });
+        for (RedisClient client : clients) {
+            client.close(closeEvent -> {
+                if (--remaining[0] == 0) {
+                    vertx.cancelTimer(timerId);
+                    onClosed.handle(null);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package io.vertx.example.todo.utils;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonArray;
+import io.vertx.redis.RedisClient;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Scanner;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * Lua script run with EVALSHA, so only its SHA1 digest travels to redis on every call.
+ * <p>
+ * The script is meant to be loaded once at startup; if redis has lost it since (restart, SCRIPT FLUSH,
+ * failover) the NOSCRIPT error is answered by loading it again and retrying once.
+ * <p>
+ * The redis client cannot decode a nil reply to EVALSHA, so scripts must always return a value.
+ */
+public class RedisScript {
+
+    private static final Metrics.Command SCRIPT_LOAD = Metrics.command("SCRIPT LOAD");
+
+    private final String source;
+    private final String sha;
+    private final Metrics.Command metrics;
+    // connections the script was loaded on for queue(), shared by the instances of every event loop
+    private final Set<RedisClient> loadedOn = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+
+    public RedisScript(String name, String source) {
+        this.source = source;
+        this.sha = sha1(source);
+        this.metrics = Metrics.command("EVALSHA " + name);
+    }
+
+    /*
+     * Reads the script from the classpath, naming it after the file, e.g. "create" for scripts/create.lua
+     */
+    public static RedisScript fromResource(String name) {
+        try (InputStream in = RedisScript.class.getClassLoader().getResourceAsStream(name)) {
+            if (in == null) {
+                throw new IllegalArgumentException("Script not found: " + name);
+            }
+            String fileName = name.substring(name.lastIndexOf('/') + 1);
+            String scriptName = fileName.endsWith(".lua") ? fileName.substring(0, fileName.length() - 4) : fileName;
+            return new RedisScript(scriptName, new Scanner(in, StandardCharsets.UTF_8.name()).useDelimiter("\\A").next());
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Script could not be read: " + name, e);
+        }
+    }
+
+    public String getSha() {
+        return sha;
+    }
+
+    public void load(RedisClient client, Handler<AsyncResult<String>> handler) {
+        client.scriptLoad(source, SCRIPT_LOAD.time(handler));
+    }
+
+    public void eval(RedisClient client, List<String> keys, List<String> args, Handler<AsyncResult<JsonArray>> handler) {
+        client.evalsha(sha, keys, args, metrics.time(evalEvent -> {
+            if (evalEvent.failed() && isNoScript(evalEvent.cause())) {
+                client.scriptLoad(source, SCRIPT_LOAD.time(loadEvent -> {
+                    if (loadEvent.succeeded()) {
+                        client.evalsha(sha, keys, args, metrics.time(handler));
+                    } else {
+                        handler.handle(Future.failedFuture(loadEvent.cause()));
+                    }
+                }));
+            } else {
+                handler.handle(evalEvent);
+            }
+        }));
+    }
+
+    /*
+     * Loads the script on the connection before its first queue(), once. A transaction that failed may have found
+     * the script missing, e.g. after a restart of redis, so forget() has it loaded again next time.
+     */
+    public void loadOnce(RedisClient client) {
+        if (loadedOn.add(client)) {
+            load(client, loadEvent -> {
+                if (loadEvent.failed()) {
+                    loadedOn.remove(client);
+                }
+            });
+        }
+    }
+
+    public void forget(RedisClient client) {
+        loadedOn.remove(client);
+    }
+
+    /*
+     * Queues the script in the transaction open on the client; its reply is read from the EXEC reply. Redis only
+     * finds a missing script at EXEC, and the client cannot decode an error inside the EXEC reply, so the script
+     * must be loaded on the same connection before MULTI, see loadOnce().
+     */
+    public void queue(RedisClient client, List<String> keys, List<String> args) {
+        client.evalsha(sha, keys, args, queued -> { });
+    }
+
+    private static boolean isNoScript(Throwable cause) {
+        return cause != null && cause.getMessage() != null && cause.getMessage().startsWith("NOSCRIPT");
+    }
+
+    private static String sha1(String source) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(source.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
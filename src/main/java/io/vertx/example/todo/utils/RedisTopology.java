@@ -0,0 +1,226 @@
+package io.vertx.example.todo.utils;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.redis.RedisClient;
+import io.vertx.redis.RedisOptions;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Redis servers of one verticle instance: a single primary, or every primary of a redis cluster, each with its own
+ * RedisPool. Commands are routed to the primary owning the cluster slot of their key, so every key a command or a
+ * script touches must share one slot, see {@link #slot(String)}.
+ * <p>
+ * Reads that tolerate some staleness may go to read replicas of a standalone primary. The primary is stamped with
+ * the time in a heartbeat key, which is read back from each replica: a replica serves reads only while the last
+ * stamp it returned is younger than the allowed staleness, so a lagging or disconnected replica is left out until
+ * it catches up. Stamps are compared across hosts, so clock skew counts as staleness.
+ */
+public class RedisTopology {
+
+    public static final int SLOTS = 16384;
+
+    private static final Metrics.Command CLUSTER_SLOTS = Metrics.command("CLUSTER SLOTS");
+    private static final Metrics.Command SET_HEARTBEAT = Metrics.command("SET heartbeat");
+    private static final Metrics.Command GET_HEARTBEAT = Metrics.command("GET heartbeat");
+
+    private final Vertx vertx;
+    private final RedisOptions options;
+    private final int poolSize;
+    private final RedisPool seed;
+    // primaries by address; the seed is the only one unless clustered
+    private final Map<String, RedisPool> primaries = new LinkedHashMap<>();
+    private final List<Replica> replicas = new ArrayList<>();
+    private RedisPool[] slots;
+    private int nextReplica;
+
+    private String heartbeatKey;
+    private long maxStaleness;
+    private long refreshInterval;
+    private final List<Long> timers = new ArrayList<>();
+
+    public RedisTopology(Vertx vertx, RedisOptions options, int poolSize) {
+        this.vertx = vertx;
+        this.options = options;
+        this.poolSize = poolSize;
+        this.seed = new RedisPool(vertx, options, poolSize);
+        primaries.put(address(options), seed);
+    }
+
+    /*
+     * Reads the slot map from the seed node on start, and again every refreshInterval milliseconds so that
+     * resharding and failovers are followed
+     */
+    public RedisTopology cluster(long refreshInterval) {
+        this.refreshInterval = refreshInterval;
+        this.slots = new RedisPool[SLOTS];
+        return this;
+    }
+
+    /*
+     * Replicas of the seed, as host:port, used for reads while they lag it by at most maxStaleness milliseconds
+     */
+    public RedisTopology replicas(List<String> addresses, long maxStaleness, String heartbeatKey) {
+        for (String address : addresses) {
+            int colon = address.lastIndexOf(':');
+            RedisOptions replicaOptions = new RedisOptions(options)
+                .setHost(colon < 0 ? address : address.substring(0, colon))
+                .setPort(colon < 0 ? options.getPort() : Integer.parseInt(address.substring(colon + 1)));
+            replicas.add(new Replica(new RedisPool(vertx, replicaOptions, poolSize)));
+        }
+        this.maxStaleness = maxStaleness;
+        this.heartbeatKey = heartbeatKey;
+        return this;
+    }
+
+    public void start(Handler<AsyncResult<Void>> onStarted) {
+        if (!replicas.isEmpty()) {
+            beat();
+            timers.add(vertx.setPeriodic(Math.max(10, maxStaleness / 4), timerId -> beat()));
+        }
+        if (slots == null) {
+            onStarted.handle(Future.succeededFuture());
+            return;
+        }
+        refreshSlots(onStarted);
+        timers.add(vertx.setPeriodic(refreshInterval, timerId -> refreshSlots(refreshEvent -> { })));
+    }
+
+    /*
+     * Pool of the primary owning the slot of the key
+     */
+    public RedisPool primary(String key) {
+        if (slots == null) {
+            return seed;
+        }
+        RedisPool pool = slots[slot(key)];
+        return pool == null ? seed : pool;
+    }
+
+    /*
+     * Client for a read of the key that may be slightly stale: a fresh replica when there is one, else the primary
+     */
+    public RedisClient read(String key) {
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < replicas.size(); i++) {
+            Replica replica = replicas.get(nextReplica);
+            nextReplica = (nextReplica + 1) % replicas.size();
+            if (now - replica.stamp <= maxStaleness) {
+                return replica.pool.next();
+            }
+        }
+        return primary(key).next();
+    }
+
+    public boolean hasReplicas() {
+        return !replicas.isEmpty();
+    }
+
+    /*
+     * Client of the seed node, used for subscriptions and for keys not tied to a slot
+     */
+    public RedisClient first() {
+        return seed.first();
+    }
+
+    public Collection<RedisPool> primaries() {
+        return primaries.values();
+    }
+
+    public void close(Handler<Void> onClosed) {
+        timers.forEach(vertx::cancelTimer);
+        List<RedisPool> pools = new ArrayList<>(primaries.values());
+        replicas.forEach(replica -> pools.add(replica.pool));
+        int[] remaining = {pools.size()};
+        for (RedisPool pool : pools) {
+            pool.close(v -> {
+                if (--remaining[0] == 0) {
+                    onClosed.handle(null);
+                }
+            });
+        }
+    }
+
+    /*
+     * Cluster slot of a key: the CRC16 of its hash tag, the part between the first '{' and the following '}' when
+     * not empty, or else of the whole key
+     */
+    public static int slot(String key) {
+        int open = key.indexOf('{');
+        if (open >= 0) {
+            int close = key.indexOf('}', open + 1);
+            if (close > open + 1) {
+                key = key.substring(open + 1, close);
+            }
+        }
+        int crc = 0;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            crc ^= (b & 0xff) << 8;
+            for (int i = 0; i < 8; i++) {
+                crc = (crc & 0x8000) != 0 ? (crc << 1) ^ 0x1021 : crc << 1;
+            }
+        }
+        return (crc & 0xffff) % SLOTS;
+    }
+
+    /*
+     * Each CLUSTER SLOTS entry is [first slot, last slot, [primary host, port, ...], replicas...]
+     */
+    private void refreshSlots(Handler<AsyncResult<Void>> onDone) {
+        seed.first().clusterSlots(CLUSTER_SLOTS.time(slotsEvent -> {
+            if (slotsEvent.failed()) {
+                onDone.handle(Future.failedFuture(slotsEvent.cause()));
+                return;
+            }
+            for (Object entry : slotsEvent.result()) {
+                JsonArray range = (JsonArray) entry;
+                JsonArray primary = range.getJsonArray(2);
+                RedisOptions primaryOptions = new RedisOptions(options)
+                    .setHost(primary.getString(0))
+                    .setPort(Integer.parseInt(primary.getValue(1).toString()));
+                RedisPool pool = primaries.computeIfAbsent(address(primaryOptions),
+                    address -> new RedisPool(vertx, primaryOptions, poolSize));
+                int last = Integer.parseInt(range.getValue(1).toString());
+                for (int slot = Integer.parseInt(range.getValue(0).toString()); slot <= last; slot++) {
+                    slots[slot] = pool;
+                }
+            }
+            onDone.handle(Future.succeededFuture());
+        }));
+    }
+
+    private void beat() {
+        String stamp = Long.toString(System.currentTimeMillis());
+        seed.first().set(heartbeatKey, stamp, SET_HEARTBEAT.time(setEvent -> { }));
+        for (Replica replica : replicas) {
+            replica.pool.first().get(heartbeatKey, GET_HEARTBEAT.time(getEvent -> {
+                if (getEvent.succeeded() && getEvent.result() != null) {
+                    replica.stamp = Math.max(replica.stamp, Long.parseLong(getEvent.result()));
+                }
+            }));
+        }
+    }
+
+    private static String address(RedisOptions options) {
+        return options.getHost() + ":" + options.getPort();
+    }
+
+    private static class Replica {
+        final RedisPool pool;
+        // heartbeat last read from the replica; 0 until one arrives, so a new replica serves no reads yet
+        long stamp;
+
+        Replica(RedisPool pool) {
+            this.pool = pool;
+        }
+    }
+}
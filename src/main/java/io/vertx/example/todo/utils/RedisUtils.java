@@ -1,45 +1,78 @@
 package io.vertx.example.todo.utils;
 
-import io.vertx.core.AsyncResult;
 import io.vertx.core.Handler;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.redis.RedisClient;
 
+import java.util.ArrayList;
 import java.util.List;
-import java.util.function.BiFunction;
+import java.util.Map;
 
 /**
  * Created by ashwin on 19/03/16.
  */
 public class RedisUtils {
 
-    private interface AsyncResultJsonObjectHandler extends Handler<AsyncResult<JsonObject>> {
-
-    }
+    public static final int DEFAULT_BATCH_SIZE = 100;
+    public static final int DEFAULT_MAX_IN_FLIGHT = 4;
 
     /*
         A util function to retrieve hash for the given list of keys.
      */
     public static void getHashes(RedisClient client, List<Object> keys, Handler<JsonArray> onComplete) {
-        JsonArray result = new JsonArray();
+        getHashes(client, keys, DEFAULT_BATCH_SIZE, DEFAULT_MAX_IN_FLIGHT, onComplete);
+    }
 
-        // we retrieve hashes by hgetall for each key recursively
+    /*
+        Retrieves the hashes with pipelined HGETALLs, at most batchSize commands per batch and
+        maxInFlight batches awaiting replies. The result is in the same order as keys.
+     */
+    public static void getHashes(RedisClient client, List<Object> keys, int batchSize, int maxInFlight,
+                                 Handler<JsonArray> onComplete) {
+        getHashes(HashSource.hgetall(client), keys, batchSize, maxInFlight, onComplete);
+    }
 
-        BiFunction<BiFunction, Integer, AsyncResultJsonObjectHandler> getAll = (get, index) -> hGet -> {
-            result.add(hGet.result());
-            if (index == keys.size()) {
-                onComplete.handle(result);
-            } else {                                        // RECURSION OCCURS HERE ----------v
-                client.hgetall(keys.get(index).toString(), (AsyncResultJsonObjectHandler) get.apply(get, index + 1));
-            }
-        };
+    /*
+        Same, reading each key with the given source.
+     */
+    public static void getHashes(HashSource source, List<Object> keys, int batchSize, int maxInFlight,
+                                 Handler<JsonArray> onComplete) {
+        JsonArray result = new JsonArray();
 
         if (keys == null || keys.size() <= 0) {
             onComplete.handle(result);
             return;
         }
 
-        client.hgetall(keys.get(0).toString(), getAll.apply(getAll, 1));
+        new RedisHashReader(source, keys, batchSize, maxInFlight)
+            .handler(result::addAll)
+            .endHandler(v -> onComplete.handle(result))
+            .start();
+    }
+
+    /*
+        Flattens a JsonObject into field/value pairs, as taken by HMSET. Null values are left out.
+     */
+    public static List<String> toFieldValues(JsonObject object) {
+        List<String> fieldValues = new ArrayList<>();
+        for (Map.Entry<String, Object> entry : object) {
+            if (entry.getValue() != null) {
+                fieldValues.add(entry.getKey());
+                fieldValues.add(entry.getValue().toString());
+            }
+        }
+        return fieldValues;
+    }
+
+    /*
+        Builds a hash from the flat field/value array returned by HGETALL inside a script.
+     */
+    public static JsonObject toHash(JsonArray fieldValues) {
+        JsonObject hash = new JsonObject();
+        for (int i = 0; i + 1 < fieldValues.size(); i += 2) {
+            hash.put(fieldValues.getValue(i).toString(), fieldValues.getValue(i + 1));
+        }
+        return hash;
     }
 }
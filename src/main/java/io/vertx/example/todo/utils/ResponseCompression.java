@@ -0,0 +1,150 @@
+package io.vertx.example.todo.utils;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.http.HttpServerResponse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Gzip or deflate compression of response bodies, negotiated from the Accept-Encoding of each request.
+ * <p>
+ * Bodies smaller than the minimum size are sent as they are: for a single todo the headers outweigh the bytes
+ * saved, and compressing costs event loop time. Chunked bodies are compressed as a stream, each chunk flushed so
+ * the client can decode it as it arrives.
+ */
+public class ResponseCompression {
+
+    public static final String GZIP = "gzip";
+    public static final String DEFLATE = "deflate";
+
+    private final int minSize;
+    private final int level;
+
+    public ResponseCompression(int minSize, int level) {
+        this.minSize = minSize;
+        this.level = level;
+    }
+
+    /*
+     * Encoding preferred by the request, gzip before deflate, or null when it accepts neither
+     */
+    public static String negotiate(HttpServerRequest request) {
+        String accepted = request.getHeader("Accept-Encoding");
+        if (accepted == null) {
+            return null;
+        }
+        boolean gzip = false;
+        boolean deflate = false;
+        for (String part : accepted.split(",")) {
+            String[] coding = part.trim().split(";");
+            boolean allowed = coding.length < 2 || !coding[1].trim().matches("q=0(\\.0*)?");
+            String name = coding[0].trim().toLowerCase();
+            gzip |= allowed && (name.equals(GZIP) || name.equals("*"));
+            deflate |= allowed && name.equals(DEFLATE);
+        }
+        return gzip ? GZIP : deflate ? DEFLATE : null;
+    }
+
+    /*
+     * Ends the response with the body, compressed when it is large enough and the request accepts it
+     */
+    public void end(HttpServerRequest request, HttpServerResponse response, Buffer body) {
+        response.putHeader("Vary", "Accept-Encoding");
+        String encoding = body.length() >= minSize ? negotiate(request) : null;
+        if (encoding == null) {
+            response.end(body);
+            return;
+        }
+        Stream stream = stream(encoding);
+        Buffer compressed = stream.write(body).appendBuffer(stream.finish());
+        response.putHeader("Content-Encoding", encoding).end(compressed);
+    }
+
+    /*
+     * Starts compressing a chunked body for the request, or returns null when it accepts no encoding; the
+     * Content-Encoding header is set on the response
+     */
+    public Stream stream(HttpServerRequest request, HttpServerResponse response) {
+        response.putHeader("Vary", "Accept-Encoding");
+        String encoding = negotiate(request);
+        if (encoding == null) {
+            return null;
+        }
+        response.putHeader("Content-Encoding", encoding);
+        return stream(encoding);
+    }
+
+    private Stream stream(String encoding) {
+        return new Stream(encoding, level);
+    }
+
+    /*
+     * One compressed body. The deflater holds native memory, so a stream must be finished or closed.
+     */
+    public static class Stream {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+        private final DeflaterOutputStream out;
+
+        Stream(String encoding, int level) {
+            try {
+                // "deflate" in HTTP is the zlib format, which DeflaterOutputStream writes by default
+                out = GZIP.equals(encoding)
+                    ? new GZIPOutputStream(bytes, 1024, true) {
+                        {
+                            def.setLevel(level);
+                        }
+                    }
+                    : new DeflaterOutputStream(bytes, true) {
+                        {
+                            def.setLevel(level);
+                        }
+                    };
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /*
+         * Compresses a chunk, returning the bytes to send for it
+         */
+        public Buffer write(Buffer chunk) {
+            try {
+                out.write(chunk.getBytes());
+                out.flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return take();
+        }
+
+        /*
+         * Returns the bytes ending the body
+         */
+        public Buffer finish() {
+            close();
+            return take();
+        }
+
+        /*
+         * Releases the deflater; the body is not usable afterwards unless it was finished
+         */
+        public void close() {
+            try {
+                out.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private Buffer take() {
+            Buffer taken = Buffer.buffer(bytes.toByteArray());
+            bytes.reset();
+            return taken;
+        }
+    }
+}
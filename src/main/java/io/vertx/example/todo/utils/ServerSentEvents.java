@@ -0,0 +1,134 @@
+package io.vertx.example.todo.utils;
+
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.json.JsonObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Open text/event-stream responses of one verticle instance, grouped by the list whose changes they follow.
+ * <p>
+ * Every stream may queue at most bufferSize bytes. A client that falls that far behind is disconnected rather than
+ * sent fewer events, since it could not tell which changes it missed; on reconnecting it reads the list again.
+ * Comments are sent every heartbeat interval, so that idle streams are not closed by proxies.
+ * <p>
+ * Like SingleFlight, an instance belongs to a single verticle instance and is only touched from its event loop.
+ */
+public class ServerSentEvents {
+
+    private static final String RETRY_MILLIS = "2000";
+
+    private final Vertx vertx;
+    private final int maxStreams;
+    private final int bufferSize;
+    private final long timerId;
+    private final Map<String, Set<HttpServerResponse>> streams = new HashMap<>();
+    private int size;
+
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder overflows = new LongAdder();
+
+    public ServerSentEvents(Vertx vertx, int maxStreams, int bufferSize, long heartbeatInterval) {
+        this.vertx = vertx;
+        this.maxStreams = maxStreams;
+        this.bufferSize = bufferSize;
+        this.timerId = vertx.setPeriodic(heartbeatInterval, id -> {
+            Buffer heartbeat = Buffer.buffer(":\n\n");
+            new ArrayList<>(streams.keySet()).forEach(list -> write(list, heartbeat));
+        });
+    }
+
+    /*
+     * Starts a stream of the events of the list on the response, or answers 503 when this instance has as many
+     * streams open as allowed
+     */
+    public void open(String list, HttpServerResponse response) {
+        if (size >= maxStreams) {
+            response.setStatusCode(HttpResponseStatus.SERVICE_UNAVAILABLE.code())
+                .putHeader("Retry-After", "1")
+                .end();
+            return;
+        }
+        response.setChunked(true)
+            .setStatusCode(HttpResponseStatus.OK.code())
+            .putHeader("content-type", "text/event-stream; charset=utf-8")
+            .putHeader("Cache-Control", "no-cache")
+            .setWriteQueueMaxSize(bufferSize);
+        streams.computeIfAbsent(list, key -> new LinkedHashSet<>()).add(response);
+        size++;
+        response.closeHandler(v -> remove(list, response));
+        // sends the headers at once, and how soon to reconnect
+        response.write("retry: " + RETRY_MILLIS + "\n\n");
+    }
+
+    /*
+     * Sends an event to every stream of the list, disconnecting the streams that cannot take it
+     */
+    public void send(String list, String type, JsonObject data) {
+        if (streams.containsKey(list)) {
+            write(list, Buffer.buffer("event: " + type + "\ndata: " + data.encode() + "\n\n"));
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long sent() {
+        return sent.sum();
+    }
+
+    public long overflows() {
+        return overflows.sum();
+    }
+
+    public void close() {
+        vertx.cancelTimer(timerId);
+        disconnectAll();
+    }
+
+    /*
+     * Disconnects every stream, for when events may have been missed: the clients reconnect and read the list again
+     */
+    public void disconnectAll() {
+        List<HttpServerResponse> open = new ArrayList<>();
+        streams.values().forEach(open::addAll);
+        open.forEach(HttpServerResponse::close);
+    }
+
+    private void write(String list, Buffer message) {
+        Set<HttpServerResponse> listStreams = streams.get(list);
+        if (listStreams == null) {
+            return;
+        }
+        for (HttpServerResponse response : new ArrayList<>(listStreams)) {
+            if (response.writeQueueFull()) {
+                overflows.increment();
+                remove(list, response);
+                response.close();
+            } else {
+                sent.increment();
+                response.write(message);
+            }
+        }
+    }
+
+    private void remove(String list, HttpServerResponse response) {
+        Set<HttpServerResponse> listStreams = streams.get(list);
+        if (listStreams != null && listStreams.remove(response)) {
+            size--;
+            if (listStreams.isEmpty()) {
+                streams.remove(list);
+            }
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package io.vertx.example.todo.utils;
+
+import io.vertx.core.Handler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Coalesces concurrent reads of the same resource: while a fetch for a key is in flight, further requests for
+ * that key wait for its result instead of starting their own.
+ * <p>
+ * Like NearCache, an instance belongs to a single verticle instance and is only touched from its event loop.
+ * <p>
+ * A write must call forget() so that requests arriving after it start a fresh fetch rather than joining one that
+ * may have read the data before the write; requests already waiting still get the result of their fetch.
+ */
+public class SingleFlight<V> {
+
+    private final Map<String, List<Handler<V>>> inFlight = new HashMap<>();
+
+    private final LongAdder fetches = new LongAdder();
+    private final LongAdder joins = new LongAdder();
+
+    /*
+     * Hands the result of the fetch in flight for the key to onResult, starting the fetch if there is none
+     */
+    public void execute(String key, Handler<Handler<V>> fetch, Handler<V> onResult) {
+        List<Handler<V>> waiting = inFlight.get(key);
+        if (waiting != null) {
+            joins.increment();
+            waiting.add(onResult);
+            return;
+        }
+        fetches.increment();
+        List<Handler<V>> handlers = new ArrayList<>();
+        handlers.add(onResult);
+        inFlight.put(key, handlers);
+        fetch.handle(result -> {
+            inFlight.remove(key, handlers);
+            for (Handler<V> handler : handlers) {
+                handler.handle(result);
+            }
+        });
+    }
+
+    public void forget() {
+        inFlight.clear();
+    }
+
+    public long fetches() {
+        return fetches.sum();
+    }
+
+    public long joins() {
+        return joins.sum();
+    }
+}
@@ -0,0 +1,220 @@
+package io.vertx.example.todo.utils;
+
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Holds updates in memory for a short window, merging the updates of each key, and then writes them all at once.
+ * <p>
+ * The first update of a key in a window loads its stored state; later ones are merged into it without touching
+ * redis, and every update is answered with the merged state. Writing hands the changed fields of every key to the
+ * writer, which is expected to pipeline them. An update is acknowledged before it is written, so the owner must
+ * flush() when it stops.
+ * <p>
+ * The changes of a key whose write failed are held again, under any made since, and written with the next window.
+ * After MAX_ATTEMPTS failed writes they are dropped: acknowledged updates are lost when redis stays unreachable, as
+ * they are when the process dies.
+ * <p>
+ * Like SingleFlight, an instance belongs to a single verticle instance and is only touched from its event loop.
+ */
+public class WriteBehind<K> {
+
+    /*
+     * Reads the stored state of a key, handing null when it does not exist
+     */
+    public interface Loader<K> {
+        void load(K key, Handler<JsonObject> onState);
+    }
+
+    /*
+     * Writes the changed fields of each key, calling onWritten once every write has completed with the keys whose
+     * write failed
+     */
+    public interface Writer<K> {
+        void write(Map<K, JsonObject> changes, Handler<Set<K>> onWritten);
+    }
+
+    static final int MAX_ATTEMPTS = 3;
+
+    private final Vertx vertx;
+    private final long window;
+    private final Loader<K> loader;
+    private final Writer<K> writer;
+
+    private final Map<K, Entry> pending = new LinkedHashMap<>();
+    // updates waiting for the state of their key to load
+    private final Map<K, List<Handler<Entry>>> loading = new HashMap<>();
+    private final List<Handler<Void>> onIdle = new ArrayList<>();
+    private int writing;
+    private long timerId = -1;
+
+    private final LongAdder updates = new LongAdder();
+    private final LongAdder writes = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    public WriteBehind(Vertx vertx, long window, Loader<K> loader, Writer<K> writer) {
+        this.vertx = vertx;
+        this.window = window;
+        this.loader = loader;
+        this.writer = writer;
+    }
+
+    /*
+     * Merges the changes into the state of the key and hands the merged state to onMerged, or null when the key
+     * does not exist
+     */
+    public void update(K key, JsonObject changes, Handler<JsonObject> onMerged) {
+        updates.increment();
+        Handler<Entry> merge = entry -> onMerged.handle(entry == null ? null : entry.merge(changes));
+        Entry entry = pending.get(key);
+        if (entry != null) {
+            merge.handle(entry);
+            return;
+        }
+        List<Handler<Entry>> waiting = loading.get(key);
+        if (waiting != null) {
+            waiting.add(merge);
+            return;
+        }
+        List<Handler<Entry>> handlers = new ArrayList<>();
+        handlers.add(merge);
+        loading.put(key, handlers);
+        // a write in flight may not have reached redis yet, so loading waits for it
+        whenWritten(v -> loader.load(key, state -> {
+            loading.remove(key);
+            Entry loaded = null;
+            if (state != null) {
+                loaded = new Entry(state);
+                pending.put(key, loaded);
+                schedule();
+            }
+            for (Handler<Entry> handler : handlers) {
+                handler.handle(loaded);
+            }
+        }));
+    }
+
+    /*
+     * Merged state of the key while its changes are not written yet, else null
+     */
+    public JsonObject pending(K key) {
+        Entry entry = pending.get(key);
+        return entry == null ? null : entry.state.copy();
+    }
+
+    /*
+     * Writes the pending changes now; onFlushed is called once they, and any write already in flight, are written
+     * or dropped after failing too often
+     */
+    public void flush(Handler<Void> onFlushed) {
+        write();
+        whenWritten(v -> {
+            if (pending.isEmpty()) {
+                onFlushed.handle(null);
+            } else {
+                flush(onFlushed);
+            }
+        });
+    }
+
+    private void write() {
+        if (timerId >= 0) {
+            vertx.cancelTimer(timerId);
+            timerId = -1;
+        }
+        if (!pending.isEmpty()) {
+            Map<K, Entry> written = new LinkedHashMap<>(pending);
+            Map<K, JsonObject> changes = new LinkedHashMap<>();
+            pending.forEach((key, entry) -> changes.put(key, entry.changes));
+            pending.clear();
+            writes.add(changes.size());
+            writing++;
+            writer.write(changes, failed -> {
+                failed.forEach(key -> retry(key, written.get(key)));
+                if (--writing == 0) {
+                    List<Handler<Void>> idle = new ArrayList<>(onIdle);
+                    onIdle.clear();
+                    idle.forEach(handler -> handler.handle(null));
+                }
+            });
+        }
+    }
+
+    public long updates() {
+        return updates.sum();
+    }
+
+    public long writes() {
+        return writes.sum();
+    }
+
+    public long retries() {
+        return retries.sum();
+    }
+
+    public long dropped() {
+        return dropped.sum();
+    }
+
+    /*
+     * Holds the changes of a failed write again, unless they failed too often. Later updates of the key wait for
+     * the write to complete before loading it, so they find the changes pending and are merged over them.
+     */
+    private void retry(K key, Entry failed) {
+        if (++failed.attempts >= MAX_ATTEMPTS) {
+            dropped.increment();
+            return;
+        }
+        retries.increment();
+        Entry entry = pending.get(key);
+        if (entry != null) {
+            failed.state.mergeIn(entry.changes);
+            failed.changes.mergeIn(entry.changes);
+        }
+        pending.put(key, failed);
+        schedule();
+    }
+
+    private void schedule() {
+        if (timerId < 0) {
+            timerId = vertx.setTimer(window, id -> {
+                timerId = -1;
+                write();
+            });
+        }
+    }
+
+    private void whenWritten(Handler<Void> handler) {
+        if (writing == 0) {
+            handler.handle(null);
+        } else {
+            onIdle.add(handler);
+        }
+    }
+
+    private static class Entry {
+        final JsonObject state;
+        final JsonObject changes = new JsonObject();
+        int attempts;
+
+        Entry(JsonObject state) {
+            this.state = state;
+        }
+
+        JsonObject merge(JsonObject update) {
+            state.mergeIn(update);
+            changes.mergeIn(update);
+            return state.copy();
+        }
+    }
+}
@@ -2,71 +2,615 @@ package io.vertx.example.todo.verticles;
 
 import io.netty.handler.codec.http.HttpResponseStatus;
 import io.vertx.core.AbstractVerticle;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
 import io.vertx.core.http.HttpMethod;
-import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.http.HttpServerOptions;
 import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.json.DecodeException;
 import io.vertx.core.json.Json;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
+import io.vertx.core.shareddata.LocalMap;
 import io.vertx.example.todo.domain.ToDoItem;
+import io.vertx.example.todo.domain.ToDoItemCodec;
+import io.vertx.example.todo.utils.HashSource;
+import io.vertx.example.todo.utils.Metrics;
+import io.vertx.example.todo.utils.NearCache;
+import io.vertx.example.todo.utils.PageRequest;
+import io.vertx.example.todo.utils.RedisHashReader;
+import io.vertx.example.todo.utils.RedisPool;
+import io.vertx.example.todo.utils.RedisTopology;
+import io.vertx.example.todo.utils.RedisScript;
 import io.vertx.example.todo.utils.RedisUtils;
+import io.vertx.example.todo.utils.ResponseCompression;
+import io.vertx.example.todo.utils.ServerSentEvents;
+import io.vertx.example.todo.utils.SingleFlight;
+import io.vertx.example.todo.utils.WriteBehind;
 import io.vertx.ext.web.Router;
 import io.vertx.ext.web.RoutingContext;
 import io.vertx.ext.web.handler.CorsHandler;
 import io.vertx.redis.RedisClient;
 import io.vertx.redis.RedisOptions;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.UUID;
+import java.util.regex.Pattern;
 
 public class ToDoVerticle extends AbstractVerticle {
     private static final Logger LOGGER = LoggerFactory.getLogger(ToDoVerticle.class);
 
     private final String TODO_URL = "/todo";
     private final String TODO_ID_URL = "/todo/:id";
+    private final String TODO_BULK_URL = "/todo/_bulk";
+    private final String TODO_EVENTS_URL = "/todo/events";
+    private final String LIST_URL = "/lists/:listId";
 
-    private static final String KEYS = "keys";
+    // list ids end up in redis hash tags, so braces and other separators are kept out
+    private static final Pattern LIST_ID = Pattern.compile("[A-Za-z0-9_.-]{1,64}");
+    // ids are allocated by INCR, and anything else would name another key of the list, such as its index
+    private static final Pattern TODO_ID = Pattern.compile("[1-9][0-9]{0,18}");
+
+    // sorted set of all ids, scored by the order of the item or else by its id
+    private static final String ORDERED_IDS = "todos";
+    // list of ids in creation order, replaced by ORDERED_IDS and migrated on startup
+    private static final String LEGACY_KEYS = "keys";
     private static final String INDEX = "index";
+    // set of the trash keys left by clearing the list, whose items are still being deleted
+    private static final String TRASH = "trash";
+    private static final String CLEARS = "clears";
+    // counter bumped by every change to a list, served as the ETag of the list and its todos
+    private static final String VERSION = "version";
+    // set of the key prefixes of lists with a TRASH of their own, so startup can find them
+    private static final String CLEARED_LISTS = "lists:cleared";
+    // time stamp written to the primary and read back from replicas, to tell how far behind they are
+    private static final String HEARTBEAT = "heartbeat";
+    private static final int MIGRATION_BATCH = 1000;
+
+    private static final RedisScript CREATE_SCRIPT = RedisScript.fromResource("scripts/create.lua");
+    private static final RedisScript UPDATE_SCRIPT = RedisScript.fromResource("scripts/update.lua");
+    private static final RedisScript DELETE_SCRIPT = RedisScript.fromResource("scripts/delete.lua");
+    private static final RedisScript MIGRATE_SCRIPT = RedisScript.fromResource("scripts/migrate.lua");
+    private static final RedisScript CLEAR_SCRIPT = RedisScript.fromResource("scripts/clear.lua");
+    private static final RedisScript RECLAIM_SCRIPT = RedisScript.fromResource("scripts/reclaim.lua");
+
+    private static final Metrics.Command HGETALL = Metrics.command("HGETALL");
+    private static final Metrics.Command GET = Metrics.command("GET");
+    private static final Metrics.Command ZRANGE = Metrics.command("ZRANGE");
+    private static final Metrics.Command ZSCORE = Metrics.command("ZSCORE");
+    private static final Metrics.Command SMEMBERS = Metrics.command("SMEMBERS");
+    private static final Metrics.Command MULTI = Metrics.command("MULTI");
+    private static final Metrics.Command EXEC = Metrics.command("EXEC");
+    private static final Metrics.Command SADD = Metrics.command("SADD");
+    private static final Metrics.Command SREM = Metrics.command("SREM");
+    private static final Metrics.Command PUBLISH = Metrics.command("PUBLISH");
+
+    private static final String ON_CLOSE = "metrics.onClose";
 
-    RedisClient client;
+    private static final String ALL_TODOS = "all";
+    private static final String INVALIDATE_ALL = "*";
+    private static final String INVALIDATION_ADDRESS = "todo.cache.invalidations";
+    private static final String EVENTS_ADDRESS = "todo.events";
+    // local map of the instance subscribed to each redis channel on behalf of the whole process
+    private static final String SUBSCRIBERS = "todo.subscribers";
+    // sent to the address of a channel whose messages may have been missed while it was not subscribed
+    private static final String RESUBSCRIBED = "";
+    // local map of the channels the process has been subscribed to, which it may since have missed messages of
+    private static final String SUBSCRIBED = "todo.subscribed";
+    // tells the instances of the process that channels were given up, for one of them to take them over
+    private static final String SUBSCRIBERS_RELEASED = "todo.subscribers.released";
+
+    RedisTopology redis;
     private Router router;
 
+    private int hashBatchSize;
+    private int hashMaxInFlight;
+    private boolean streamLists;
+    private int maxPageSize;
+    private int maxBulkSize;
+    private int bulkTimeout;
+    private boolean compactStorage;
+    private String namespace;
+    // prefix of the keys of "/todo", the list with no id
+    private String defaultPrefix;
+    private int reclaimBatchSize;
+    // null when responses are sent uncompressed
+    private ResponseCompression compression;
+    // null when updates are written as they come
+    private WriteBehind<ItemRef> writeBehind;
+    // requests of this instance routed and not yet answered
+    private int inFlight;
+    private int maxInFlight;
+    private int maxPendingCommands;
+    private int retryAfter;
+
+    private NearCache<Versioned<ToDoItem>> itemCache;
+    private NearCache<Versioned<Buffer>> listCache;
+    // list and item reads in flight, shared by identical requests arriving meanwhile
+    private SingleFlight<ListPage> listReads;
+    private SingleFlight<Buffer> itemReads;
+    private String invalidationChannel;
+    // null when changes are not streamed
+    private ServerSentEvents events;
+    private String eventsChannel;
+    // tells this instance apart in the map of channel subscribers shared by the instances of this process
+    private final String instanceId = UUID.randomUUID().toString();
+    // event bus address of every channel this instance follows, and the channels it subscribed to for the process
+    private final Map<String, String> channelAddresses = new LinkedHashMap<>();
+    private final List<String> subscribedChannels = new ArrayList<>();
+    // checks of the subscriptions sent, and the last one sent before they were last restored
+    private long checksSent;
+    private long checksBeforeRestore;
+    private boolean stopping;
+
     @Override
-    public void start() throws Exception {
+    public void start(Future<Void> startFuture) throws Exception {
         init();
         setRoutes();
-        startServer();
+        redis.start(topologyEvent -> {
+            if (topologyEvent.failed()) {
+                startFuture.fail(topologyEvent.cause());
+                return;
+            }
+            loadScripts();
+            migrateLegacyKeys(v -> {
+                reclaimTrash();
+                startServer(startFuture);
+            });
+        });
+    }
+
+    @Override
+    public void stop(Future<Void> stopFuture) throws Exception {
+        if (events != null) {
+            events.close();
+        }
+        // hands the channels over to another instance of the process, if any is left
+        stopping = true;
+        if (!subscribedChannels.isEmpty()) {
+            redis.first().unsubscribe(subscribedChannels, unsubscribeEvent -> { });
+            LocalMap<String, String> subscribers = vertx.sharedData().getLocalMap(SUBSCRIBERS);
+            subscribedChannels.forEach(channel -> subscribers.removeIfPresent(channel, instanceId));
+            vertx.eventBus().publish(SUBSCRIBERS_RELEASED, null);
+        }
+        // updates already answered must reach redis before it is closed
+        afterUpdates(() -> redis.close(v -> stopFuture.complete()));
     }
 
     private void init() {
         router = Router.router(vertx);
-        client = RedisClient.create(vertx, new RedisOptions().setAddress("127.0.0.1").setPort(6379));
+        RedisOptions redisOptions = new RedisOptions()
+            .setHost(stringOption("redis.host", "127.0.0.1"))
+            .setPort(intOption("redis.port", 6379))
+            .setTcpNoDelay(true);
+        namespace = stringOption("todo.namespace", "");
+        redis = new RedisTopology(vertx, redisOptions, intOption("redis.pool.size", 1));
+        String replicas = stringOption("redis.replicas", "");
+        if (booleanOption("redis.cluster", false)) {
+            redis.cluster(intOption("redis.cluster.refresh", 10000));
+            // every key of a list must share a slot, so the list with no id gets a hash tag of its own
+            defaultPrefix = namespace + "{todo}:";
+        } else {
+            if (!replicas.isEmpty()) {
+                redis.replicas(Arrays.asList(replicas.split(",")), intOption("redis.replica.staleness", 1000),
+                    key(namespace, HEARTBEAT));
+            }
+            defaultPrefix = namespace;
+        }
+        hashBatchSize = intOption("redis.batch.size", RedisUtils.DEFAULT_BATCH_SIZE);
+        hashMaxInFlight = intOption("redis.batch.inflight", RedisUtils.DEFAULT_MAX_IN_FLIGHT);
+        streamLists = booleanOption("todo.stream", false);
+        maxPageSize = intOption("todo.page.max", 1000);
+        maxBulkSize = intOption("todo.bulk.max", 1000);
+        bulkTimeout = intOption("todo.bulk.timeout", 5000);
+        compactStorage = booleanOption("todo.storage.compact", false);
+        reclaimBatchSize = intOption("todo.clear.batch", 500);
+        maxInFlight = intOption("http.inflight.max", 1024);
+        maxPendingCommands = intOption("redis.pending.max", 10000);
+        retryAfter = intOption("http.retryAfter", 1);
+        int updateWindow = intOption("todo.update.window", 0);
+        if (updateWindow > 0) {
+            writeBehind = new WriteBehind<>(vertx, updateWindow, this::loadItem, this::writeUpdates);
+        }
+        if (booleanOption("http.compression", false)) {
+            compression = new ResponseCompression(intOption("http.compression.min", 1024),
+                intOption("http.compression.level", 6));
+        }
+        if (booleanOption("todo.coalesce", true)) {
+            listReads = new SingleFlight<>();
+            itemReads = new SingleFlight<>();
+        }
+        if (booleanOption("todo.cache.enabled", false)) {
+            setupCache();
+        }
+        if (booleanOption("todo.events", false)) {
+            setupEvents();
+        }
         setupCORS();
     }
 
+    /*
+     * Caches decoded items and the serialized list in this instance. Every mutation evicts locally and publishes
+     * the id on a redis channel, so that the caches of all other instances drop their copies too. The id is sent
+     * after the id of the instance, which ignores its own invalidations: they would come back after it evicted, and
+     * drop what it has read since.
+     */
+    private void setupCache() {
+        int size = intOption("todo.cache.size", 10000);
+        int ttl = intOption("todo.cache.ttl", 5000);
+        itemCache = new NearCache<>(size, ttl);
+        listCache = new NearCache<>(16, ttl);
+        invalidationChannel = stringOption("todo.cache.channel", "todo:invalidations");
+
+        vertx.eventBus().<String>consumer(INVALIDATION_ADDRESS, message -> {
+            String invalidation = message.body();
+            if (RESUBSCRIBED.equals(invalidation)) {
+                evict(INVALIDATE_ALL);
+                return;
+            }
+            int separator = invalidation.indexOf(' ');
+            if (!invalidation.substring(0, Math.max(separator, 0)).equals(instanceId)) {
+                evict(invalidation.substring(separator + 1));
+            }
+        });
+        subscribe(invalidationChannel, INVALIDATION_ADDRESS);
+        if (ttl > 0) {
+            vertx.setPeriodic(ttl, timerId -> {
+                itemCache.expire();
+                listCache.expire();
+            });
+        }
+    }
+
+    /*
+     * Streams the changes of each list to the clients following it. Every mutation publishes its change on a redis
+     * channel, so the clients of every instance and process see it.
+     */
+    private void setupEvents() {
+        events = new ServerSentEvents(vertx, intOption("todo.events.max", 1000), intOption("todo.events.buffer", 65536),
+            intOption("todo.events.heartbeat", 15000));
+        eventsChannel = stringOption("todo.events.channel", "todo:events");
+
+        vertx.eventBus().<String>consumer(EVENTS_ADDRESS, message -> {
+            if (RESUBSCRIBED.equals(message.body())) {
+                events.disconnectAll();
+                return;
+            }
+            JsonObject change = new JsonObject(message.body());
+            String list = (String) change.remove("list");
+            events.send(list, (String) change.remove("type"), change);
+        });
+        subscribe(eventsChannel, EVENTS_ADDRESS);
+    }
+
+    /*
+     * Publishes the messages of a redis channel to every instance of this process on the event bus address. Only
+     * one instance per process subscribes: were every instance to, redis would deliver each message once per
+     * instance, and every delivery would reach all of them. Every instance checks the subscriptions periodically,
+     * so that one takes over the channels of a stopped instance.
+     */
+    private void subscribe(String channel, String address) {
+        // the redis client hands each channel message to a single consumer, so it is re-published to every instance
+        vertx.eventBus().<JsonObject>consumer("io.vertx.redis." + channel, message ->
+            vertx.eventBus().publish(address, message.body().getJsonObject("value").getString("message")));
+        if (channelAddresses.isEmpty()) {
+            vertx.setPeriodic(intOption("todo.subscribe.check", 1000), timerId -> checkSubscriptions());
+            vertx.eventBus().consumer(SUBSCRIBERS_RELEASED, message -> checkSubscriptions());
+        }
+        channelAddresses.put(channel, address);
+        checkSubscriptions();
+    }
+
+    /*
+     * Takes the channels no instance of the process holds, and subscribes again once redis lost the subscriptions.
+     * The redis client does not subscribe again when it reconnects, and a SUBSCRIBE may fail, so a channel of its
+     * own, with no messages, is subscribed first: the number of channels the connection holds, in the reply, tells
+     * whether all of them are still subscribed. When a channel was subscribed before, messages may have been missed,
+     * so the instances drop their caches and streams.
+     */
+    private void checkSubscriptions() {
+        if (stopping) {
+            return;
+        }
+        LocalMap<String, String> subscribers = vertx.sharedData().getLocalMap(SUBSCRIBERS);
+        channelAddresses.keySet().stream()
+            .filter(channel -> subscribers.putIfAbsent(channel, instanceId) == null)
+            .forEach(subscribedChannels::add);
+        if (subscribedChannels.isEmpty()) {
+            return;
+        }
+        RedisClient client = redis.first();
+        long check = ++checksSent;
+        client.subscribe("todo:subscriber:" + instanceId, checkEvent -> {
+            if (checkEvent.failed()) {
+                logError("Checking subscriptions failed.", checkEvent.cause());
+            } else if (check > checksBeforeRestore && checkEvent.result().getLong(2) <= subscribedChannels.size()) {
+                // checks already sent are answered before the channels are subscribed, so they are not acted on
+                checksBeforeRestore = checksSent;
+                subscribedChannels.forEach(channel -> client.subscribe(channel, subscribeEvent -> {
+                    if (subscribeEvent.failed()) {
+                        logError("Subscribing to " + channel + " failed.", subscribeEvent.cause());
+                    } else if (vertx.sharedData().<String, Boolean>getLocalMap(SUBSCRIBED).put(channel, true) != null) {
+                        vertx.eventBus().publish(channelAddresses.get(channel), RESUBSCRIBED);
+                    }
+                }));
+            }
+        });
+    }
+
+    /*
+     * Loads the scripts up front, so the first request does not pay for it. Redis being unreachable is not fatal:
+     * the scripts are loaded again on first use.
+     */
+    private void loadScripts() {
+        for (RedisPool primary : redis.primaries()) {
+            for (RedisScript script : Arrays.asList(CREATE_SCRIPT, UPDATE_SCRIPT, DELETE_SCRIPT, MIGRATE_SCRIPT,
+                CLEAR_SCRIPT, RECLAIM_SCRIPT)) {
+                script.load(primary.first(), loadEvent -> {
+                    if (loadEvent.failed()) {
+                        logError("Loading script " + script.getSha() + " failed.", loadEvent.cause());
+                    }
+                });
+            }
+        }
+    }
+
+    /*
+     * Moves the ids of a list left by an older version into the sorted set, a batch per script call so redis is
+     * never blocked for long. Instances starting together share the work. A failure is logged and startup goes on.
+     */
+    private void migrateLegacyKeys(Handler<Void> onDone) {
+        MIGRATE_SCRIPT.eval(redis.primary(defaultPrefix).first(),
+            Arrays.asList(key(defaultPrefix, LEGACY_KEYS), key(defaultPrefix, ORDERED_IDS)),
+            Arrays.asList(Integer.toString(MIGRATION_BATCH), defaultPrefix), migrateEvent -> {
+                if (migrateEvent.failed()) {
+                    logError("Migrating " + key(defaultPrefix, LEGACY_KEYS) + " failed.", migrateEvent.cause());
+                    onDone.handle(null);
+                } else if (migrateEvent.result().getLong(0) > 0) {
+                    migrateLegacyKeys(onDone);
+                } else {
+                    onDone.handle(null);
+                }
+            });
+    }
+
+    /*
+     * Resumes deleting the items of lists cleared by an instance that stopped before it was done
+     */
+    private void reclaimTrash() {
+        reclaimTrash(defaultPrefix);
+        redis.primary(key(namespace, CLEARED_LISTS)).first().smembers(key(namespace, CLEARED_LISTS), SMEMBERS.time(listsEvent -> {
+            if (listsEvent.failed()) {
+                logError("Reading " + key(namespace, CLEARED_LISTS) + " failed.", listsEvent.cause());
+                return;
+            }
+            for (Object prefix : listsEvent.result()) {
+                reclaimTrash(prefix.toString());
+            }
+        }));
+    }
+
+    private void reclaimTrash(String prefix) {
+        redis.primary(prefix).first().smembers(key(prefix, TRASH), SMEMBERS.time(membersEvent -> {
+            if (membersEvent.failed()) {
+                logError("Reading " + key(prefix, TRASH) + " failed.", membersEvent.cause());
+                return;
+            }
+            if (membersEvent.result().isEmpty() && !prefix.equals(defaultPrefix)) {
+                redis.primary(key(namespace, CLEARED_LISTS)).first()
+                    .srem(key(namespace, CLEARED_LISTS), prefix, SREM.time(sremEvent -> { }));
+            }
+            for (Object trash : membersEvent.result()) {
+                reclaim(prefix, trash.toString());
+            }
+        }));
+    }
+
+    /*
+     * Deletes the items of a cleared list a batch per script call, sending the next batch once the previous one is
+     * done, so commands of other clients are served in between and redis latency stays flat.
+     */
+    private void reclaim(String prefix, String trash) {
+        RECLAIM_SCRIPT.eval(redis.primary(prefix).first(), Arrays.asList(trash, key(prefix, TRASH)),
+            Arrays.asList(Integer.toString(reclaimBatchSize), prefix), reclaimEvent -> {
+                if (reclaimEvent.failed()) {
+                    logError("Reclaiming " + trash + " failed.", reclaimEvent.cause());
+                } else if (reclaimEvent.result().getLong(0) > 0) {
+                    reclaim(prefix, trash);
+                }
+            });
+    }
+
+    /*
+     * Prefix of the redis keys of the list a request is for. The todos of "/lists/:listId/todo" are kept under a
+     * {listId} hash tag, so a whole list lives in one redis cluster slot; "/todo" is the list with no tag.
+     */
+    private String prefix(RoutingContext context) {
+        String listId = context.request().getParam("listId");
+        return listId == null ? defaultPrefix : namespace + "{" + listId + "}:";
+    }
+
+    /*
+     * Redis key of a todo, or of one of the structures indexing them, in the list with the given prefix
+     */
+    private static String key(String prefix, String name) {
+        return prefix + name;
+    }
+
+    /*
+     * Reads an option from the verticle config, falling back to a system property of the same name
+     */
+    private int intOption(String key, int defaultValue) {
+        return config().getInteger(key, Integer.getInteger(key, defaultValue));
+    }
+
+    private String stringOption(String key, String defaultValue) {
+        return config().getString(key, System.getProperty(key, defaultValue));
+    }
+
+    private boolean booleanOption(String key, boolean defaultValue) {
+        String property = System.getProperty(key);
+        return config().getBoolean(key, property == null ? defaultValue : Boolean.parseBoolean(property));
+    }
+
     private void setRoutes() {
         //HttpMethod is defined for route and a handler is assigned
 
-        router.get(TODO_URL).handler(this::getAllToDo);
-        router.delete(TODO_URL).handler(this::clearAllToDo);
-        router.post(TODO_URL).handler(this::createToDo);
+        router.get(TODO_URL).handler(timed("GET " + TODO_URL, this::getAllToDo));
+        router.delete(TODO_URL).handler(timed("DELETE " + TODO_URL, this::clearAllToDo));
+        router.post(TODO_URL).handler(timed("POST " + TODO_URL, this::createToDo));
+        router.post(TODO_BULK_URL).handler(timed("POST " + TODO_BULK_URL, this::bulkToDo));
+
+        if (events != null) {
+            // ahead of the item routes, which would take "events" for an id
+            router.get(TODO_EVENTS_URL).handler(this::streamEvents);
+            router.get(LIST_URL + TODO_EVENTS_URL).handler(inList(this::streamEvents));
+        }
+        router.get(TODO_ID_URL).handler(timed("GET " + TODO_ID_URL, withId(this::getToDo)));
+        router.delete(TODO_ID_URL).handler(timed("DELETE " + TODO_ID_URL, withId(this::deleteToDo)));
+        router.put(TODO_ID_URL).handler(timed("PUT " + TODO_ID_URL, withId(this::updateToDo)));
+        router.patch(TODO_ID_URL).handler(timed("PATCH " + TODO_ID_URL, withId(this::updateToDo)));
+
+        router.get(LIST_URL + TODO_URL).handler(timed("GET " + LIST_URL + TODO_URL, inList(this::getAllToDo)));
+        router.delete(LIST_URL + TODO_URL).handler(timed("DELETE " + LIST_URL + TODO_URL, inList(this::clearAllToDo)));
+        router.post(LIST_URL + TODO_URL).handler(timed("POST " + LIST_URL + TODO_URL, inList(this::createToDo)));
+        router.post(LIST_URL + TODO_BULK_URL).handler(timed("POST " + LIST_URL + TODO_BULK_URL, inList(this::bulkToDo)));
+
+        router.get(LIST_URL + TODO_ID_URL).handler(timed("GET " + LIST_URL + TODO_ID_URL, inList(withId(this::getToDo))));
+        router.delete(LIST_URL + TODO_ID_URL).handler(timed("DELETE " + LIST_URL + TODO_ID_URL, inList(withId(this::deleteToDo))));
+        router.put(LIST_URL + TODO_ID_URL).handler(timed("PUT " + LIST_URL + TODO_ID_URL, inList(withId(this::updateToDo))));
+        router.patch(LIST_URL + TODO_ID_URL).handler(timed("PATCH " + LIST_URL + TODO_ID_URL, inList(withId(this::updateToDo))));
+
+        router.get("/stats/cache").handler(this::getCacheStats);
+        router.get("/metrics").handler(this::getMetrics);
+        router.route().failureHandler(this::handleFailure);
+    }
+
+    /*
+     * Answers a request whose handler threw, so that its response ends and its in-flight slot is given back
+     */
+    private void handleFailure(RoutingContext context) {
+        HttpServerResponse response = context.response();
+        logError("Handling " + context.request().method() + " " + context.request().path() + " failed.",
+            context.failure());
+        if (response.ended() || response.closed()) {
+            return;
+        }
+        if (response.headWritten()) {
+            // a chunked body cannot be answered with a status any more
+            response.close();
+        } else {
+            response.setStatusCode(context.statusCode() > 0 ? context.statusCode()
+                : HttpResponseStatus.INTERNAL_SERVER_ERROR.code()).end();
+        }
+    }
+
+    /*
+     * Hands the request body to the handler. Unlike the handler of a route, it runs outside the router, so an
+     * exception it throws is passed to the failure handler here.
+     */
+    private static void onBody(RoutingContext context, Handler<Buffer> handler) {
+        context.request().bodyHandler(buffer -> {
+            try {
+                handler.handle(buffer);
+            } catch (RuntimeException e) {
+                context.fail(e);
+            }
+        });
+    }
+
+    /*
+     * Records latency, response size and status of every request of the route. The handler to call when the
+     * connection closes early is kept in the context, for routes that set their own closeHandler. An overloaded
+     * instance answers 503 at once rather than queueing more work, so that latency stays bounded and clients back
+     * off for the Retry-After period.
+     */
+    private Handler<RoutingContext> timed(String route, Handler<RoutingContext> handler) {
+        Metrics.Route metrics = Metrics.route(route);
+        return context -> {
+            if (overloaded()) {
+                context.put(ON_CLOSE, metrics.begin(context.response(), () -> { }));
+                metrics.shed();
+                context.response().setStatusCode(HttpResponseStatus.SERVICE_UNAVAILABLE.code())
+                    .putHeader("Retry-After", Integer.toString(retryAfter))
+                    .end();
+                return;
+            }
+            inFlight++;
+            context.put(ON_CLOSE, metrics.begin(context.response(), () -> inFlight--));
+            handler.handle(context);
+        };
+    }
+
+    /*
+     * Whether this instance has as many requests in flight as allowed, or redis as many commands awaiting replies
+     */
+    private boolean overloaded() {
+        return maxInFlight > 0 && inFlight >= maxInFlight
+            || maxPendingCommands > 0 && Metrics.pendingCommands() >= maxPendingCommands;
+    }
+
+    /*
+     * Rejects list ids that cannot be used in a redis key as they are
+     */
+    private Handler<RoutingContext> inList(Handler<RoutingContext> handler) {
+        return context -> {
+            if (LIST_ID.matcher(context.request().getParam("listId")).matches()) {
+                handler.handle(context);
+            } else {
+                context.response().setStatusCode(HttpResponseStatus.BAD_REQUEST.code())
+                    .end("List ids are 1 to 64 letters, digits, '_', '.' or '-'");
+            }
+        };
+    }
 
-        router.get(TODO_ID_URL).handler(this::getToDo);
-        router.delete(TODO_ID_URL).handler(this::deleteToDo);
-        router.put(TODO_ID_URL).handler(this::updateToDo);
-        router.patch(TODO_ID_URL).handler(this::updateToDo);
+    /*
+     * Answers 404 for ids that no todo can have, before they are turned into redis keys
+     */
+    private static Handler<RoutingContext> withId(Handler<RoutingContext> handler) {
+        return context -> {
+            if (isToDoId(context.request().getParam("id"))) {
+                handler.handle(context);
+            } else {
+                context.response().setStatusCode(HttpResponseStatus.NOT_FOUND.code())
+                    .end();
+            }
+        };
     }
 
-    private void startServer() {
-        Integer port = Integer.getInteger("http.port");
-        port = (port == null) ? 8000 : port;
-        vertx.createHttpServer()
+    private static boolean isToDoId(String id) {
+        return id != null && TODO_ID.matcher(id).matches();
+    }
+
+    /*
+     * Every deployed instance listens on the same port; vert.x balances the connections across their event loops
+     */
+    private void startServer(Future<Void> startFuture) {
+        HttpServerOptions options = new HttpServerOptions()
+            .setTcpNoDelay(booleanOption("http.tcpNoDelay", true))
+            .setAcceptBacklog(intOption("http.backlog", -1))
+            .setIdleTimeout(intOption("http.idleTimeout", 0));
+        vertx.createHttpServer(options)
             .requestHandler(router::accept)
-            .listen(port, System.getProperty("http.address", "0.0.0.0"));
+            .listen(intOption("http.port", 8000), stringOption("http.address", "0.0.0.0"), listenEvent -> {
+                // deployment completes only once the server accepts connections
+                if (listenEvent.succeeded()) {
+                    startFuture.complete();
+                } else {
+                    startFuture.fail(listenEvent.cause());
+                }
+            });
     }
 
 
@@ -77,13 +621,28 @@ public class ToDoVerticle extends AbstractVerticle {
         Set<HttpMethod> toDoIdUrlMethodSet = new HashSet<>(Arrays.asList(HttpMethod.GET,
             HttpMethod.DELETE, HttpMethod.PATCH, HttpMethod.OPTIONS, HttpMethod.PUT));
 
-        router.route(TODO_URL).handler(CorsHandler.create("*")
-            .allowedMethods(toDoUrlMethodSet)
-            .allowedHeader("Content-Type"));
+        for (String listUrl : Arrays.asList("", LIST_URL)) {
+            router.route(listUrl + TODO_URL).handler(CorsHandler.create("*")
+                .allowedMethods(toDoUrlMethodSet)
+                .allowedHeader("Content-Type")
+                .allowedHeader("If-None-Match")
+                .exposedHeader("X-Next-Cursor")
+                .exposedHeader("Link")
+                .exposedHeader("ETag")
+                .exposedHeader("Retry-After"));
 
-        router.route(TODO_ID_URL).handler(CorsHandler.create("*")
-            .allowedMethods(toDoIdUrlMethodSet)
-            .allowedHeader("Content-Type"));
+            router.route(listUrl + TODO_BULK_URL).handler(CorsHandler.create("*")
+                .allowedMethods(new HashSet<>(Arrays.asList(HttpMethod.POST, HttpMethod.OPTIONS)))
+                .allowedHeader("Content-Type")
+                .exposedHeader("Retry-After"));
+
+            router.route(listUrl + TODO_ID_URL).handler(CorsHandler.create("*")
+                .allowedMethods(toDoIdUrlMethodSet)
+                .allowedHeader("Content-Type")
+                .allowedHeader("If-None-Match")
+                .exposedHeader("ETag")
+                .exposedHeader("Retry-After"));
+        }
     }
 
     /*
@@ -91,159 +650,1034 @@ public class ToDoVerticle extends AbstractVerticle {
      * on the relative route "/todo"
      */
     private void createToDo(RoutingContext context) {
-        HttpServerRequest req = context.request();
         HttpServerResponse response = context.response();
+        String prefix = prefix(context);
 
-        req.bodyHandler(buffer -> {
-            ToDoItem item = Json.decodeValue(buffer.getString(0, buffer.length()), ToDoItem.class);
-            item.setUrl(context.request().absoluteURI());
-            // Maintain and increment an index, and use it to uniquely identify a todo item
-            client.incr(INDEX, incrEvent -> {
-                if (incrEvent.succeeded()) {
-                    String index = incrEvent.result().toString();
-                    item.setUrl(item.getUrl() + "/" + index);
-                    client.multi(multiEvent ->
-                        //Insert the todoItem
-                        client.hmset(index, ToDoItem.toJsonObject(item), hmsetEvent ->
-                            //Maintain a list of index
-                            client.rpush(KEYS, index, rpushEvent -> client.exec(event -> {
-                                if (event.succeeded())
-                                    response.setStatusCode(HttpResponseStatus.CREATED.code())
-                                        .putHeader("content-type", "application/json; charset=utf-8")
-                                        .end(Json.encode(item));
-                                else {
-                                    response.setStatusCode(HttpResponseStatus.NO_CONTENT.code())
-                                        .end();
-                                    logError("Todo creation failed.", event.cause());
-                                }
-                            }))
-                        )
-                    );
+        onBody(context, buffer -> {
+            ToDoItem item;
+            try {
+                item = ToDoItemCodec.decode(buffer);
+            } catch (DecodeException e) {
+                response.setStatusCode(HttpResponseStatus.BAD_REQUEST.code())
+                    .end(e.getMessage());
+                return;
+            }
+            // The script increments an index, uses it to uniquely identify the todo item and adds it to the index
+            CREATE_SCRIPT.eval(redis.primary(prefix).next(), createKeys(prefix), createArgs(prefix, collectionUrl(context), item), event -> {
+                if (event.succeeded()) {
+                    String index = event.result().getValue(0).toString();
+                    invalidate(key(prefix, index));
+                    item.setUrl(event.result().getString(1));
+                    publishChange(prefix, "create", index, ToDoItem.toJsonObject(item));
+                    response.setStatusCode(HttpResponseStatus.CREATED.code())
+                        .putHeader("content-type", "application/json; charset=utf-8")
+                        .end(ToDoItemCodec.encode(item));
                 } else {
                     response.setStatusCode(HttpResponseStatus.NO_CONTENT.code())
                         .end();
+                    logError("Todo creation failed.", event.cause());
                 }
             });
         });
     }
 
+    private static List<String> createKeys(String prefix) {
+        return Arrays.asList(key(prefix, INDEX), key(prefix, ORDERED_IDS), key(prefix, VERSION));
+    }
+
+    private List<String> createArgs(String prefix, String collectionUrl, ToDoItem item) {
+        List<String> args = new ArrayList<>();
+        args.add(collectionUrl);
+        args.add(item.getOrder() == null ? "" : item.getOrder().toString());
+        args.add(prefix);
+        if (compactStorage) {
+            args.add(ToDoItemCodec.pack(item));
+        } else {
+            JsonObject fields = ToDoItem.toJsonObject(item);
+            fields.remove("url");
+            args.add("");
+            args.addAll(RedisUtils.toFieldValues(fields));
+        }
+        return args;
+    }
+
+    /*
+     * Absolute url of the todo collection; the url of an item is this url followed by its id, which is dropped from
+     * the url of a request to an item route
+     */
+    private String collectionUrl(RoutingContext context) {
+        String url = context.request().absoluteURI();
+        int query = url.indexOf('?');
+        if (query >= 0) {
+            url = url.substring(0, query);
+        }
+        String toDoId = context.request().getParam("id");
+        if (toDoId != null && url.endsWith("/" + toDoId)) {
+            return url.substring(0, url.length() - toDoId.length() - 1);
+        }
+        return url.endsWith(TODO_BULK_URL) ? url.substring(0, url.length() - "/_bulk".length()) : url;
+    }
+
+    /*
+     * bulkToDo applies an array of operations posted to "/todo/_bulk", each one of
+     * {"op": "create", "item": {...}}, {"op": "update", "id": "1", "item": {...}} or {"op": "delete", "id": "1"}.
+     *
+     * Every operation is queued as the script the single request would run, all in one MULTI ... EXEC, so each
+     * one checks its item and changes it in one atomic step, and the whole bulk takes one round trip. The response
+     * holds one result per operation, in order.
+     */
+    private void bulkToDo(RoutingContext context) {
+        onBody(context, buffer -> {
+            JsonArray operations;
+            try {
+                operations = new JsonArray(buffer.toString());
+            } catch (DecodeException | ClassCastException e) {
+                context.response().setStatusCode(HttpResponseStatus.BAD_REQUEST.code())
+                    .end("Expected a JSON array of operations");
+                return;
+            }
+            if (operations.size() > maxBulkSize) {
+                context.response().setStatusCode(HttpResponseStatus.BAD_REQUEST.code())
+                    .end("At most " + maxBulkSize + " operations are accepted");
+                return;
+            }
+
+            List<BulkOperation> bulk = new ArrayList<>(operations.size());
+            for (int i = 0; i < operations.size(); i++) {
+                bulk.add(BulkOperation.parse(operations.getValue(i)));
+            }
+            afterUpdates(() -> writeBulk(context, redis.primary(prefix(context)).next(), bulk));
+        });
+    }
+
+    /*
+     * Every write in one transaction. The commands are queued back to back, with nothing else able to run on this
+     * connection in between; the scripts are loaded on it first, see RedisScript.queue. A script failing inside the
+     * transaction leaves EXEC unanswered by the redis client, so after the bulk timeout the request is failed.
+     */
+    private void writeBulk(RoutingContext context, RedisClient client, List<BulkOperation> bulk) {
+        String collectionUrl = collectionUrl(context);
+        String prefix = prefix(context);
+
+        Set<RedisScript> scripts = new HashSet<>();
+        for (BulkOperation operation : bulk) {
+            if (operation.type.script != null) {
+                scripts.add(operation.type.script);
+            }
+        }
+        scripts.forEach(script -> script.loadOnce(client));
+        client.multi(MULTI.time(multiEvent -> { }));
+        for (BulkOperation operation : bulk) {
+            switch (operation.type) {
+                case CREATE:
+                    CREATE_SCRIPT.queue(client, createKeys(prefix), createArgs(prefix, collectionUrl, operation.item));
+                    break;
+                case UPDATE:
+                    UPDATE_SCRIPT.queue(client, updateKeys(prefix, operation.id),
+                        updateArgs(operation.id, collectionUrl, operation.fields));
+                    break;
+                case DELETE:
+                    DELETE_SCRIPT.queue(client, deleteKeys(prefix, operation.id), Collections.singletonList(operation.id));
+                    break;
+                default:
+                    break;
+            }
+        }
+        Handler<AsyncResult<JsonArray>> onExec = EXEC.time(execEvent -> {
+            if (!scripts.isEmpty()) {
+                invalidate(INVALIDATE_ALL);
+            }
+            if (execEvent.failed()) {
+                scripts.forEach(script -> script.forget(client));
+                context.response().setStatusCode(HttpResponseStatus.INTERNAL_SERVER_ERROR.code()).end();
+                logError("Bulk operation failed.", execEvent.cause());
+                return;
+            }
+            JsonArray replies = execEvent.result();
+            JsonArray results = new JsonArray();
+            int reply = 0;
+            for (BulkOperation operation : bulk) {
+                JsonArray scriptReply = operation.type.script == null ? null : replies.getJsonArray(reply++);
+                switch (operation.type) {
+                    case CREATE:
+                        operation.id = scriptReply.getValue(0).toString();
+                        operation.item.setUrl(scriptReply.getString(1));
+                        results.add(operation.result(HttpResponseStatus.CREATED, operation.item));
+                        break;
+                    case UPDATE:
+                        if (scriptReply.isEmpty()) {
+                            results.add(operation.result(HttpResponseStatus.NOT_FOUND, null));
+                        } else {
+                            results.add(operation.result(HttpResponseStatus.OK,
+                                ToDoItemCodec.fromHash(RedisUtils.toHash(scriptReply))));
+                        }
+                        break;
+                    case DELETE:
+                        results.add(operation.result(isDeleted(scriptReply) ? HttpResponseStatus.NO_CONTENT
+                            : HttpResponseStatus.NOT_FOUND, null));
+                        break;
+                    default:
+                        results.add(operation.result(HttpResponseStatus.BAD_REQUEST, null));
+                        break;
+                }
+                JsonObject result = results.getJsonObject(results.size() - 1);
+                if (result.getInteger("status") < 300) {
+                    publishChange(prefix, operation.type.name().toLowerCase(), operation.id, result.getJsonObject("item"));
+                }
+            }
+            context.response().setStatusCode(HttpResponseStatus.OK.code())
+                .putHeader("content-type", "application/json; charset=utf-8");
+            end(context, Buffer.buffer(results.encode()));
+        });
+        boolean[] answered = {false};
+        long timerId = vertx.setTimer(bulkTimeout, id -> {
+            if (!answered[0]) {
+                answered[0] = true;
+                onExec.handle(Future.failedFuture("No reply to EXEC within " + bulkTimeout + " ms"));
+            }
+        });
+        client.exec(execEvent -> {
+            if (!answered[0]) {
+                answered[0] = true;
+                vertx.cancelTimer(timerId);
+                onExec.handle(execEvent);
+            }
+        });
+    }
 
     /*
      * Echos JsonArray of todolist items
      */
 
     private void getAllToDo(RoutingContext context) {
-        client.lrange(KEYS, 0, -1, lrangeEvent ->
-            RedisUtils.getHashes(client, lrangeEvent.result().getList(), jsonArray ->
-                context.response()
-                    .setStatusCode(HttpResponseStatus.OK.code())
-                    .putHeader("content-type", "application/json; charset=utf-8")
+        PageRequest page;
+        try {
+            page = PageRequest.from(context.request(), maxPageSize);
+        } catch (IllegalArgumentException e) {
+            context.response().setStatusCode(HttpResponseStatus.BAD_REQUEST.code())
+                .end(e.getMessage());
+            return;
+        }
+
+        String prefix = prefix(context);
+        RedisClient client = redis.read(prefix);
+        // only the whole, buffered list is cached; pages and streams always read through
+        boolean cacheable = listCache != null && !page.isPaged() && !streamLists;
+        String cacheKey = key(prefix, ALL_TODOS);
+        Versioned<Buffer> cached = cacheable ? listCache.get(cacheKey) : null;
+        if (cached != null && context.request().getHeader("If-None-Match") == null) {
+            // every change evicts the cached list, so it is answered without reading the version
+            respondList(context, cached);
+            return;
+        }
+        long generation = cacheable ? listCache.generation() : 0;
+        checkVersion(context, client, prefix, version -> {
+            if (cached != null && cached.version.equals(version)) {
+                respondList(context, cached);
+            } else {
+                getAllToDo(context, page, prefix, client, version, generation);
+            }
+        });
+    }
+
+    private void respondList(RoutingContext context, Versioned<Buffer> cached) {
+        context.response()
+            .setStatusCode(HttpResponseStatus.OK.code())
+            .putHeader("content-type", "application/json; charset=utf-8")
+            .putHeader("ETag", etag(cached.version));
+        end(context, cached.value);
+    }
+
+    /*
+     * Answers with the list as of the given version or later. Reads in flight are looked up by version, so the
+     * body is never older than the ETag sent with it. The list is cached with that version, unless an
+     * invalidation arrived since the given generation of the cache.
+     */
+    private void getAllToDo(RoutingContext context, PageRequest page, String prefix, RedisClient client,
+                            String version, long generation) {
+        boolean cacheable = listCache != null && !page.isPaged() && !streamLists;
+
+        if (streamLists) {
+            readIds(client, prefix, page, keys -> {
+                if (keys == null) {
+                    context.response().setStatusCode(HttpResponseStatus.INTERNAL_SERVER_ERROR.code())
+                        .end();
+                    return;
+                }
+                if (hasMore(page, keys)) {
+                    setNextPageHeaders(context, page);
+                }
+                streamAllToDo(context, client, trim(page, keys));
+            });
+            return;
+        }
+        Handler<ListPage> respond = listPage -> {
+            if (listPage.body == null) {
+                context.response().setStatusCode(HttpResponseStatus.INTERNAL_SERVER_ERROR.code())
+                    .end();
+                return;
+            }
+            if (listPage.more) {
+                setNextPageHeaders(context, page);
+            }
+            context.response()
+                .setStatusCode(HttpResponseStatus.OK.code())
+                .putHeader("content-type", "application/json; charset=utf-8");
+            end(context, listPage.body);
+        };
+        Handler<Handler<ListPage>> fetch = onPage -> readIds(client, prefix, page, keys -> {
+            if (keys == null) {
+                onPage.handle(new ListPage(null, false));
+                return;
+            }
+            boolean more = hasMore(page, keys);
+            RedisUtils.getHashes(itemSource(context, client), trim(page, keys), hashBatchSize, hashMaxInFlight,
+                jsonArray -> {
                     /*
                      * Apparently boolean and integer values in jsonArray are as strings, needs type conversion,
-					 * hence we deserialize it to List<ToDoItem> and encode it as JSON!
-					 * They get type casted automatically.
-					 */
-                    .end(Json.encode(jsonArray.getList()
-                        .stream()
-                        .map(element -> Json.decodeValue(element.toString(), ToDoItem.class))
-                        .collect(Collectors.toList()))
-                    )
-            )
-        );
+                     * which the codec does while writing each hash straight into the response buffer.
+                     */
+                    Buffer body = ToDoItemCodec.encodeHashes(jsonArray.getList());
+                    if (cacheable) {
+                        listCache.put(key(prefix, ALL_TODOS), new Versioned<>(body, version), generation);
+                    }
+                    onPage.handle(new ListPage(body, more));
+                });
+        });
+        if (listReads == null) {
+            fetch.handle(respond);
+        } else {
+            // urls in the body are built from the request, so requests only share a read for the same collection url
+            listReads.execute(collectionUrl(context) + "?" + page.getOffset() + ":" + page.getStop() + "@" + version,
+                fetch, respond);
+        }
+    }
+
+    /*
+     * Ids of the requested page, plus the first id of the next page if there is one, or null when redis failed
+     */
+    private void readIds(RedisClient client, String prefix, PageRequest page, Handler<List<Object>> onIds) {
+        client.zrange(key(prefix, ORDERED_IDS), page.getOffset(), page.getStop(), ZRANGE.time(zrangeEvent -> {
+            if (zrangeEvent.failed()) {
+                logError("Reading todo list failed.", zrangeEvent.cause());
+                onIds.handle(null);
+            } else {
+                List<Object> ids = new ArrayList<>(zrangeEvent.result().size());
+                zrangeEvent.result().forEach(ids::add);
+                onIds.handle(ids);
+            }
+        }));
+    }
 
+    private static boolean hasMore(PageRequest page, List<Object> keys) {
+        return page.isPaged() && keys.size() > page.getLimit();
     }
 
+    /*
+     * Drops the id read past the end of the page
+     */
+    private static List<Object> trim(PageRequest page, List<Object> keys) {
+        return hasMore(page, keys) ? keys.subList(0, page.getLimit()) : keys;
+    }
+
+    /*
+     * Reads the version of the list and sends it as the ETag. A client already holding that version gets a 304 with
+     * no further work; otherwise the version is handed on.
+     */
+    private void checkVersion(RoutingContext context, RedisClient client, String prefix, Handler<String> onChanged) {
+        client.get(key(prefix, VERSION), GET.time(getEvent -> {
+            if (getEvent.failed()) {
+                context.response().setStatusCode(HttpResponseStatus.INTERNAL_SERVER_ERROR.code())
+                    .end();
+                logError("Reading version of " + prefix + " failed.", getEvent.cause());
+                return;
+            }
+            String version = getEvent.result() == null ? "0" : getEvent.result();
+            String etag = etag(version);
+            context.response().putHeader("ETag", etag);
+            if (matches(context.request().getHeader("If-None-Match"), etag)) {
+                context.response().setStatusCode(HttpResponseStatus.NOT_MODIFIED.code())
+                    .end();
+            } else {
+                onChanged.handle(version);
+            }
+        }));
+    }
+
+    /*
+     * Weak, as gzip, deflate and identity bodies of one version share it
+     */
+    private static String etag(String version) {
+        return "W/\"" + version + "\"";
+    }
+
+    /*
+     * Whether an If-None-Match header lists the ETag, or is "*"; tags are compared weakly, by version only
+     */
+    private static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        etag = etag.substring(2);
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals(etag) || tag.equals("*")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+     * Hands out the cursor of the following page, both as a header and as a Link to follow
+     */
+    private void setNextPageHeaders(RoutingContext context, PageRequest page) {
+        String cursor = page.nextCursor();
+        String next = context.request().path() + "?" + PageRequest.LIMIT_PARAM + "=" + page.getLimit()
+            + "&" + PageRequest.CURSOR_PARAM + "=" + cursor;
+        context.response()
+            .putHeader("X-Next-Cursor", cursor)
+            .putHeader("Link", "<" + next + ">; rel=\"next\"");
+    }
+
+    /*
+     * Writes the todolist as a chunked JsonArray, one chunk per batch of hashes read from redis.
+     * Reading is paused while the response write queue is full, so only a few batches are held in memory.
+     */
+    private void streamAllToDo(RoutingContext context, RedisClient client, List<Object> keys) {
+        HttpServerResponse response = context.response()
+            .setChunked(true)
+            .setStatusCode(HttpResponseStatus.OK.code())
+            .putHeader("content-type", "application/json; charset=utf-8");
+
+        RedisHashReader reader = new RedisHashReader(itemSource(context, client), keys, hashBatchSize, hashMaxInFlight);
+        ResponseCompression.Stream compressed = compression == null ? null
+            : compression.stream(context.request(), response);
+        boolean[] first = {true};
+
+        reader.handler(batch -> {
+            if (batch.isEmpty()) {
+                return;
+            }
+            Buffer chunk = Buffer.buffer(batch.size() * 128);
+            if (first[0]) {
+                chunk.appendString("[");
+            }
+            ToDoItemCodec.appendHashes(batch.getList(), first[0], chunk);
+            first[0] = false;
+            response.write(compressed == null ? chunk : compressed.write(chunk));
+            if (response.writeQueueFull()) {
+                reader.pause();
+                response.drainHandler(v -> reader.resume());
+            }
+        }).endHandler(v -> {
+            Buffer last = Buffer.buffer(first[0] ? "[]" : "]");
+            response.end(compressed == null ? last : compressed.write(last).appendBuffer(compressed.finish()));
+        });
+
+        // stop reading if the client goes away mid-response
+        Handler<Void> onClose = context.get(ON_CLOSE);
+        response.closeHandler(v -> {
+            reader.pause();
+            if (compressed != null) {
+                compressed.close();
+            }
+            onClose.handle(null);
+        });
+        reader.start();
+    }
+
+
+    /*
+     * Reads an item stored either as a hash or packed, trying the configured format first: during a rolling change
+     * of todo.storage.compact, or until every item has been rewritten, both formats are found. The item is handed
+     * as its hash, with the url derived from the collection url for packed items, or as null when missing.
+     */
+    private void readItem(RedisClient client, String prefix, String toDoId, String collectionUrl,
+                          Handler<JsonObject> onHash) {
+        String itemKey = key(prefix, toDoId);
+        String url = collectionUrl + "/" + toDoId;
+        if (compactStorage) {
+            readPacked(client, itemKey, url, onHash, () -> readHash(client, itemKey, onHash, null));
+        } else {
+            readHash(client, itemKey, onHash, () -> readPacked(client, itemKey, url, onHash, null));
+        }
+    }
+
+    private void readHash(RedisClient client, String itemKey, Handler<JsonObject> onHash, Runnable onWrongType) {
+        client.hgetall(itemKey, HGETALL.time(event -> {
+            if (event.succeeded()) {
+                onHash.handle(event.result().size() > 0 ? event.result() : null);
+            } else if (onWrongType != null && isWrongType(event.cause())) {
+                onWrongType.run();
+            } else {
+                onHash.handle(null);
+            }
+        }));
+    }
+
+    private void readPacked(RedisClient client, String itemKey, String url, Handler<JsonObject> onHash,
+                            Runnable onWrongType) {
+        client.getBinary(itemKey, GET.time(event -> {
+            if (event.succeeded() && event.result() != null && event.result().length() > 0) {
+                ToDoItem item;
+                try {
+                    item = ToDoItemCodec.unpack(event.result());
+                } catch (DecodeException e) {
+                    logError("Todo at key: " + itemKey + " is corrupt.", e);
+                    onHash.handle(null);
+                    return;
+                }
+                item.setUrl(url);
+                onHash.handle(ToDoItem.toJsonObject(item));
+            } else if (event.failed() && onWrongType != null && isWrongType(event.cause())) {
+                onWrongType.run();
+            } else {
+                onHash.handle(null);
+            }
+        }));
+    }
+
+    private HashSource itemSource(RoutingContext context, RedisClient client) {
+        String prefix = prefix(context);
+        String collectionUrl = collectionUrl(context);
+        return (toDoId, onHash) -> readItem(client, prefix, toDoId, collectionUrl, onHash);
+    }
+
+    private static boolean isWrongType(Throwable cause) {
+        return cause != null && cause.getMessage() != null && cause.getMessage().startsWith("WRONGTYPE");
+    }
 
     private void getToDo(RoutingContext context) {
-        HttpServerResponse response = context.response();
         String toDoId = context.request().getParam("id");
-        client.hgetall(toDoId, event -> {
-            if (event.succeeded() && event.result().size() > 0) {
-                ToDoItem toDoItem = Json.decodeValue(event.result().encode(), ToDoItem.class);
+        String prefix = prefix(context);
+        JsonObject pending = writeBehind == null ? null : writeBehind.pending(new ItemRef(prefix, toDoId, null));
+        if (pending != null) {
+            // not written yet, so neither redis nor its version know of it
+            context.response().setStatusCode(HttpResponseStatus.OK.code())
+                .putHeader("content-type", "application/json; charset=utf-8");
+            end(context, ToDoItemCodec.encode(ToDoItemCodec.fromHash(pending)));
+            return;
+        }
+        String cacheKey = key(prefix, toDoId);
+        Versioned<ToDoItem> cached = itemCache == null ? null : itemCache.get(cacheKey);
+        if (cached != null && context.request().getHeader("If-None-Match") == null) {
+            // like lists, cached todos are evicted on every change, so the version is not read
+            respondItem(context, cached);
+            return;
+        }
+        long generation = itemCache == null ? 0 : itemCache.generation();
+        checkVersion(context, redis.read(prefix), prefix, version -> {
+            if (cached != null && cached.version.equals(version)) {
+                respondItem(context, cached);
+            } else {
+                getToDo(context, prefix, toDoId, version, generation);
+            }
+        });
+    }
+
+    private void respondItem(RoutingContext context, Versioned<ToDoItem> cached) {
+        context.response().setStatusCode(HttpResponseStatus.OK.code())
+            .putHeader("content-type", "application/json; charset=utf-8")
+            .putHeader("ETag", etag(cached.version));
+        end(context, ToDoItemCodec.encode(cached.value));
+    }
+
+    /*
+     * Answers with the todo as of the given version of its list or later, caching it as of that version unless an
+     * invalidation arrived since the given generation of the cache
+     */
+    private void getToDo(RoutingContext context, String prefix, String toDoId, String version, long generation) {
+        HttpServerResponse response = context.response();
+        String collectionUrl = collectionUrl(context);
+        Handler<Buffer> respond = body -> {
+            if (body != null) {
                 response.setStatusCode(HttpResponseStatus.OK.code())
-                    .putHeader("content-type", "application/json; charset=utf-8")
-                    .end(Json.encode(toDoItem));
+                    .putHeader("content-type", "application/json; charset=utf-8");
+                end(context, body);
             } else {
                 response.setStatusCode(HttpResponseStatus.NOT_FOUND.code())
                     .end();
-                logError("Todo for id: " + toDoId + " not found. Read failed.", event.cause());
+                logError("Todo for id: " + toDoId + " not found. Read failed.", null);
             }
-        });
+        };
+        Handler<Handler<Buffer>> fetch = onBody -> {
+            Handler<JsonObject> onHash = hash -> {
+                if (hash == null) {
+                    onBody.handle(null);
+                    return;
+                }
+                ToDoItem toDoItem = ToDoItemCodec.fromHash(hash);
+                if (itemCache != null) {
+                    itemCache.put(key(prefix, toDoId), new Versioned<>(toDoItem, version), generation);
+                }
+                onBody.handle(ToDoItemCodec.encode(toDoItem));
+            };
+            readItem(redis.read(prefix), prefix, toDoId, collectionUrl, hash -> {
+                if (hash == null && redis.hasReplicas()) {
+                    // a todo created within the staleness allowed may not have reached the replica yet
+                    readItem(redis.primary(prefix).next(), prefix, toDoId, collectionUrl, onHash);
+                } else {
+                    onHash.handle(hash);
+                }
+            });
+        };
+        if (itemReads == null) {
+            fetch.handle(respond);
+        } else {
+            itemReads.execute(collectionUrl + "/" + toDoId + "@" + version, fetch, respond);
+        }
     }
 
-
+    /*
+     * Empties the list at once by moving its index aside; the items it lists are deleted in the background.
+     * Only keys of this namespace are touched, so redis can be shared with other applications; like the delete of a
+     * single todo, only items listed in the index are deleted.
+     */
     private void clearAllToDo(RoutingContext context) {
-        client.del(KEYS, delEvent -> {
-            if (delEvent.succeeded()) {
-                client.flushdb(flushdbEvent -> {
-                    if (flushdbEvent.succeeded() && flushdbEvent.result().equals("OK")) {
-                        context.response().setStatusCode(HttpResponseStatus.NO_CONTENT.code())
-                            .end();
-                    } else {
-                        context.response().setStatusCode(HttpResponseStatus.INTERNAL_SERVER_ERROR.code())
-                            .end();
-                        logError("FLUSH DB failed.", flushdbEvent.cause());
-                    }
-                });
-            }
-        });
+        afterUpdates(() -> clearAllToDo(context, prefix(context)));
+    }
 
+    private void clearAllToDo(RoutingContext context, String prefix) {
+        RedisClient client = redis.primary(prefix).next();
+        CLEAR_SCRIPT.eval(client, Arrays.asList(key(prefix, ORDERED_IDS), key(prefix, TRASH), key(prefix, CLEARS),
+            key(prefix, VERSION)),
+            Collections.emptyList(), clearEvent -> {
+                invalidate(INVALIDATE_ALL);
+                if (clearEvent.succeeded()) {
+                    publishChange(prefix, "clear", null, null);
+                    context.response().setStatusCode(HttpResponseStatus.NO_CONTENT.code())
+                        .end();
+                    String trash = clearEvent.result().getString(0);
+                    if (trash.isEmpty()) {
+                        return;
+                    }
+                    if (!prefix.equals(defaultPrefix)) {
+                        // the list's trash lives in its own slot, so it is registered apart, once it exists
+                        redis.primary(key(namespace, CLEARED_LISTS)).next().sadd(key(namespace, CLEARED_LISTS), prefix, SADD.time(saddEvent -> { }));
+                    }
+                    reclaim(prefix, trash);
+                } else {
+                    context.response().setStatusCode(HttpResponseStatus.INTERNAL_SERVER_ERROR.code())
+                        .end();
+                    logError("Clearing todo list failed.", clearEvent.cause());
+                }
+            });
     }
 
     /*
      * Deletes todo for the requested url
      */
     private void deleteToDo(RoutingContext context) {
-        String toDoId = context.request().getParam("id");
-        client.multi(multiEvent ->
-            client.lrem(KEYS, 1, toDoId, lremEvent ->
-                client.del(toDoId, event -> client.exec(execEvent -> {
-                    JsonArray result = execEvent.result();
-                    if (execEvent.succeeded() && result.getInteger(0) == 1 && result.getInteger(1) == 1)
-                        context.response().setStatusCode(HttpResponseStatus.NO_CONTENT.code())
-                            .end();
-                    else {
-                        context.response().setStatusCode(HttpResponseStatus.NOT_FOUND.code())
-                            .end();
-                        logError("Todo for id: " + toDoId + " not found. Delete failed.", execEvent.cause());
-                    }
-                }))
-            )
-        );
+        afterUpdates(() -> deleteToDo(context, prefix(context), context.request().getParam("id")));
+    }
+
+    private void deleteToDo(RoutingContext context, String prefix, String toDoId) {
+        DELETE_SCRIPT.eval(redis.primary(prefix).next(), deleteKeys(prefix, toDoId),
+            Collections.singletonList(toDoId), event -> {
+                invalidate(key(prefix, toDoId));
+                if (event.succeeded() && isDeleted(event.result())) {
+                    publishChange(prefix, "delete", toDoId, null);
+                    context.response().setStatusCode(HttpResponseStatus.NO_CONTENT.code())
+                        .end();
+                } else {
+                    context.response().setStatusCode(HttpResponseStatus.NOT_FOUND.code())
+                        .end();
+                    logError("Todo for id: " + toDoId + " not found. Delete failed.", event.cause());
+                }
+            });
+    }
+
+    private static List<String> deleteKeys(String prefix, String toDoId) {
+        return Arrays.asList(key(prefix, ORDERED_IDS), key(prefix, toDoId), key(prefix, VERSION));
+    }
+
+    /*
+     * Whether the delete script removed both the id and the item
+     */
+    private static boolean isDeleted(JsonArray reply) {
+        return reply.getLong(0) == 1 && reply.getLong(1) == 1;
     }
 
     /*
      * Updates to do for the requested url
      */
     private void updateToDo(RoutingContext context) {
-
-        HttpServerRequest req = context.request();
-        req.bodyHandler(buffer -> {
+        String prefix = prefix(context);
+        onBody(context, buffer -> {
             String toDoId = context.request().getParam("id");
-            JsonObject jsonObject = new JsonObject(buffer.getString(0, buffer.length()));
-            client.hmset(toDoId, jsonObject, hmsetEvent -> {
-                if (hmsetEvent.succeeded() && hmsetEvent.result().equals("OK")) {
-                    client.hgetall(toDoId, hgetAllEvent -> {
-                        if (hgetAllEvent.succeeded() && hgetAllEvent.result().size() > 0) {
-                            ToDoItem toDo = Json.decodeValue(hgetAllEvent.result().toString(), ToDoItem.class);
-                            context.response().setStatusCode(HttpResponseStatus.OK.code())
-                                .putHeader("content-type", "application/json; charset=utf-8")
-                                .end(Json.encode(toDo));
-                        } else {
-                            context.response().setStatusCode(HttpResponseStatus.NO_CONTENT.code())
-                                .end();
-                            logError("Todo for id: " + toDoId + " not found. Retrieval after Update failed.",
-                                hgetAllEvent.cause());
-                        }
-                    });
+            JsonObject jsonObject;
+            try {
+                jsonObject = new JsonObject(buffer.getString(0, buffer.length()));
+            } catch (DecodeException e) {
+                context.response().setStatusCode(HttpResponseStatus.BAD_REQUEST.code())
+                    .end(e.getMessage());
+                return;
+            }
+            if (writeBehind != null) {
+                updateBehind(context, new ItemRef(prefix, toDoId, collectionUrl(context)), jsonObject);
+                return;
+            }
+            // The script sets the fields and reads the item back in the same round trip
+            UPDATE_SCRIPT.eval(redis.primary(prefix).next(), updateKeys(prefix, toDoId),
+                updateArgs(toDoId, collectionUrl(context), jsonObject), event -> {
+                invalidate(key(prefix, toDoId));
+                if (event.succeeded() && !event.result().isEmpty()) {
+                    JsonObject hash = RedisUtils.toHash(event.result());
+                    ToDoItem toDo = ToDoItemCodec.fromHash(hash);
+                    publishChange(prefix, "update", toDoId, ToDoItem.toJsonObject(toDo));
+                    context.response().setStatusCode(HttpResponseStatus.OK.code())
+                        .putHeader("content-type", "application/json; charset=utf-8")
+                        .end(ToDoItemCodec.encode(toDo));
                 } else {
                     context.response().setStatusCode(HttpResponseStatus.NOT_FOUND.code()).end();
-                    logError("Todo for id: " + toDoId + " not found. Update failed.", hmsetEvent.cause());
+                    logError("Todo for id: " + toDoId + " not found. Update failed.", event.cause());
                 }
             });
         });
     }
 
+    private static List<String> updateKeys(String prefix, String toDoId) {
+        return Arrays.asList(key(prefix, toDoId), key(prefix, ORDERED_IDS), key(prefix, VERSION));
+    }
+
+    private List<String> updateArgs(String toDoId, String collectionUrl, JsonObject fields) {
+        List<String> args = new ArrayList<>();
+        args.add(toDoId);
+        args.add(compactStorage ? "packed" : "hash");
+        args.add(collectionUrl + "/" + toDoId);
+        args.addAll(RedisUtils.toFieldValues(fields));
+        return args;
+    }
+
+    /*
+     * Merges the update into the changes of the todo waiting to be written and answers with the merged todo
+     */
+    private void updateBehind(RoutingContext context, ItemRef item, JsonObject update) {
+        JsonObject changes = new JsonObject();
+        List<String> fieldValues = RedisUtils.toFieldValues(update);
+        for (int i = 0; i + 1 < fieldValues.size(); i += 2) {
+            // the url is the one of the item, whatever the request says
+            if (!"url".equals(fieldValues.get(i))) {
+                changes.put(fieldValues.get(i), fieldValues.get(i + 1));
+            }
+        }
+        writeBehind.update(item, changes, merged -> {
+            if (merged != null) {
+                context.response().setStatusCode(HttpResponseStatus.OK.code())
+                    .putHeader("content-type", "application/json; charset=utf-8")
+                    .end(ToDoItemCodec.encode(ToDoItemCodec.fromHash(merged)));
+            } else {
+                context.response().setStatusCode(HttpResponseStatus.NOT_FOUND.code()).end();
+                logError("Todo for id: " + item.id + " not found. Update failed.", null);
+            }
+        });
+    }
+
+    /*
+     * Reads the todo an update is merged into; like the update script, a todo no longer indexed has been cleared
+     */
+    private void loadItem(ItemRef item, Handler<JsonObject> onState) {
+        RedisClient client = redis.primary(item.prefix).next();
+        client.zscore(key(item.prefix, ORDERED_IDS), item.id, ZSCORE.time(scoreEvent -> {
+            if (scoreEvent.failed() || scoreEvent.result() == null) {
+                onState.handle(null);
+            } else {
+                readItem(client, item.prefix, item.id, item.collectionUrl, onState);
+            }
+        }));
+    }
+
+    /*
+     * Writes the merged changes of every todo with the update script, all sent without waiting for replies
+     */
+    private void writeUpdates(Map<ItemRef, JsonObject> updates, Handler<Set<ItemRef>> onWritten) {
+        int[] remaining = {updates.size()};
+        Set<ItemRef> failed = new HashSet<>();
+        updates.forEach((item, changes) -> {
+            UPDATE_SCRIPT.eval(redis.primary(item.prefix).next(), updateKeys(item.prefix, item.id),
+                updateArgs(item.id, item.collectionUrl, changes), event -> {
+                invalidate(key(item.prefix, item.id));
+                if (event.failed()) {
+                    logError("Writing the updates of todo " + item.id + " failed.", event.cause());
+                    failed.add(item);
+                } else if (!event.result().isEmpty()) {
+                    ToDoItem updated = ToDoItemCodec.fromHash(RedisUtils.toHash(event.result()));
+                    publishChange(item.prefix, "update", item.id, ToDoItem.toJsonObject(updated));
+                }
+                // an empty reply means the todo was deleted meanwhile, so its updates are gone with it
+                if (--remaining[0] == 0) {
+                    onWritten.handle(failed);
+                }
+            });
+        });
+    }
+
+    /*
+     * Follows the changes of the list as server-sent events, until the client goes away or falls behind
+     */
+    private void streamEvents(RoutingContext context) {
+        events.open(prefix(context), context.response());
+    }
+
+    /*
+     * Publishes a change of the list to the event streams of every instance. The id and item are left out of
+     * events that have none, like a clear.
+     */
+    private void publishChange(String prefix, String type, String toDoId, JsonObject item) {
+        if (events == null) {
+            return;
+        }
+        JsonObject change = new JsonObject().put("list", prefix).put("type", type);
+        if (toDoId != null) {
+            change.put("id", toDoId);
+        }
+        if (item != null) {
+            change.put("item", item);
+        }
+        redis.primary(defaultPrefix).next().publish(eventsChannel, change.encode(), PUBLISH.time(publishEvent -> {
+            if (publishEvent.failed()) {
+                logError("Publishing " + type + " of " + prefix + " failed.", publishEvent.cause());
+            }
+        }));
+    }
+
+    /*
+     * Runs a change once the updates waiting to be written are written, so that it applies after them
+     */
+    private void afterUpdates(Runnable change) {
+        if (writeBehind == null) {
+            change.run();
+        } else {
+            writeBehind.flush(v -> change.run());
+        }
+    }
+
+    private void getCacheStats(RoutingContext context) {
+        JsonObject stats = new JsonObject().put("enabled", itemCache != null);
+        if (itemCache != null) {
+            stats.put("items", cacheStats(itemCache)).put("lists", cacheStats(listCache));
+        }
+        if (listReads != null) {
+            stats.put("coalesced", new JsonObject()
+                .put("fetches", listReads.fetches() + itemReads.fetches())
+                .put("joins", listReads.joins() + itemReads.joins()));
+        }
+        if (events != null) {
+            stats.put("events", new JsonObject()
+                .put("streams", events.size())
+                .put("sent", events.sent())
+                .put("overflows", events.overflows()));
+        }
+        if (writeBehind != null) {
+            stats.put("writeBehind", new JsonObject()
+                .put("updates", writeBehind.updates())
+                .put("writes", writeBehind.writes())
+                .put("retries", writeBehind.retries())
+                .put("dropped", writeBehind.dropped()));
+        }
+        context.response().setStatusCode(HttpResponseStatus.OK.code())
+            .putHeader("content-type", "application/json; charset=utf-8")
+            .end(stats.encode());
+    }
+
+    /*
+     * Ends the response with a body worth compressing, compressed when enabled, large enough and accepted
+     */
+    private void end(RoutingContext context, Buffer body) {
+        if (compression == null) {
+            context.response().end(body);
+        } else {
+            compression.end(context.request(), context.response(), body);
+        }
+    }
+
+    private void getMetrics(RoutingContext context) {
+        context.response().setStatusCode(HttpResponseStatus.OK.code())
+            .putHeader("content-type", "text/plain; version=0.0.4; charset=utf-8");
+        end(context, Buffer.buffer(Metrics.scrape()));
+    }
+
+    private static JsonObject cacheStats(NearCache<?> cache) {
+        return new JsonObject()
+            .put("size", cache.size())
+            .put("hits", cache.hits())
+            .put("misses", cache.misses())
+            .put("evictions", cache.evictions());
+    }
+
+    /*
+     * Drops the cached copies of a changed todo, given by its key (or of every todo), here and on every other instance
+     */
+    private void invalidate(String toDoId) {
+        if (listReads != null) {
+            // reads started before this change must not be joined by requests that come after it
+            listReads.forget();
+            itemReads.forget();
+        }
+        if (itemCache == null) {
+            return;
+        }
+        evict(toDoId);
+        String invalidation = instanceId + " " + toDoId;
+        redis.primary(defaultPrefix).next().publish(invalidationChannel, invalidation, PUBLISH.time(publishEvent -> {
+            if (publishEvent.failed()) {
+                logError("Publishing invalidation of " + toDoId + " failed.", publishEvent.cause());
+            }
+        }));
+    }
+
+    private void evict(String toDoId) {
+        if (INVALIDATE_ALL.equals(toDoId)) {
+            itemCache.invalidateAll();
+        } else {
+            itemCache.invalidate(toDoId);
+        }
+        listCache.invalidateAll();
+    }
+
+    /*
+     * A todo with updates waiting to be written, identified by its list and id
+     */
+    private static class ItemRef {
+        final String prefix;
+        final String id;
+        final String collectionUrl;
+
+        ItemRef(String prefix, String id, String collectionUrl) {
+            this.prefix = prefix;
+            this.id = id;
+            this.collectionUrl = collectionUrl;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof ItemRef && prefix.equals(((ItemRef) other).prefix)
+                && id.equals(((ItemRef) other).id);
+        }
+
+        @Override
+        public int hashCode() {
+            return prefix.hashCode() * 31 + id.hashCode();
+        }
+    }
+
+    /*
+     * A cached value with the version of its list it was read at, sent as its ETag
+     */
+    private static class Versioned<V> {
+        final V value;
+        final String version;
+
+        Versioned(V value, String version) {
+            this.value = value;
+            this.version = version;
+        }
+    }
+
+    /*
+     * A page of the list as read once for every request sharing the read; a null body tells the read failed
+     */
+    private static class ListPage {
+        final Buffer body;
+        final boolean more;
+
+        ListPage(Buffer body, boolean more) {
+            this.body = body;
+            this.more = more;
+        }
+    }
+
+    /*
+     * One operation of a bulk request, with what is learnt about it along the way
+     */
+    private static class BulkOperation {
+
+        enum Type {
+            CREATE(CREATE_SCRIPT), UPDATE(UPDATE_SCRIPT), DELETE(DELETE_SCRIPT), INVALID(null);
+
+            // run for the operation, or null when nothing is queued for it
+            final RedisScript script;
+
+            Type(RedisScript script) {
+                this.script = script;
+            }
+        }
+
+        Type type = Type.INVALID;
+        String error;
+        String id;
+        ToDoItem item;
+        JsonObject fields;
+
+        static BulkOperation parse(Object value) {
+            BulkOperation operation = new BulkOperation();
+            if (!(value instanceof JsonObject)) {
+                operation.error = "Operation must be an object";
+                return operation;
+            }
+            JsonObject json = (JsonObject) value;
+            String op = String.valueOf(json.getValue("op"));
+            Object id = json.getValue("id");
+            Object item = json.getValue("item");
+            try {
+                switch (op) {
+                    case "create":
+                        if (item instanceof JsonObject) {
+                            operation.item = ToDoItemCodec.decode(Buffer.buffer(((JsonObject) item).encode()));
+                            operation.type = Type.CREATE;
+                        } else {
+                            operation.error = "create needs an item";
+                        }
+                        break;
+                    case "update":
+                        if (id != null && !isToDoId(id.toString())) {
+                            operation.error = "Not a todo id: " + id;
+                        } else if (id != null && item instanceof JsonObject) {
+                            operation.id = id.toString();
+                            operation.fields = (JsonObject) item;
+                            operation.type = Type.UPDATE;
+                        } else {
+                            operation.error = "update needs an id and an item";
+                        }
+                        break;
+                    case "delete":
+                        if (id != null && !isToDoId(id.toString())) {
+                            operation.error = "Not a todo id: " + id;
+                        } else if (id != null) {
+                            operation.id = id.toString();
+                            operation.type = Type.DELETE;
+                        } else {
+                            operation.error = "delete needs an id";
+                        }
+                        break;
+                    default:
+                        operation.error = "Unknown op: " + op;
+                }
+            } catch (DecodeException e) {
+                operation.error = "Invalid item: " + e.getMessage();
+            }
+            return operation;
+        }
+
+        JsonObject result(HttpResponseStatus status, ToDoItem toDoItem) {
+            JsonObject result = new JsonObject().put("status", status.code());
+            if (id != null) {
+                result.put("id", id);
+            }
+            if (toDoItem != null) {
+                result.put("item", ToDoItem.toJsonObject(toDoItem));
+            }
+            if (error != null) {
+                result.put("error", error);
+            }
+            return result;
+        }
+    }
+
     private void logError(String msg, Throwable throwable) {
         LOGGER.error(msg, throwable);
     }
@@ -0,0 +1,12 @@
+-- Empties the ordered index at once by renaming it to a new trash key, left for reclaim.lua to delete along with
+-- the items it lists. Returns the trash key, or '' when the index was already empty.
+-- KEYS[1]: sorted set of ids, KEYS[2]: set of trash keys awaiting reclaim, KEYS[3]: counter naming trash keys,
+-- KEYS[4]: version of the list
+if redis.call('EXISTS', KEYS[1]) == 0 then
+    return ''
+end
+local trash = KEYS[1] .. ':cleared:' .. redis.call('INCR', KEYS[3])
+redis.call('RENAME', KEYS[1], trash)
+redis.call('SADD', KEYS[2], trash)
+redis.call('INCR', KEYS[4])
+return trash
@@ -0,0 +1,14 @@
+-- Allocates the next id, stores the item under it and adds the id to the ordered index, atomically.
+-- KEYS[1]: id counter, KEYS[2]: sorted set of ids, KEYS[3]: version of the list
+-- ARGV[1]: url the id is appended to, ARGV[2]: order of the item or '' to sort by id, ARGV[3]: prefix of item keys,
+-- ARGV[4]: packed item to store as a string, or '' to store ARGV[5..], the field/value pairs of the item, as a hash
+local id = redis.call('INCR', KEYS[1])
+local url = ARGV[1] .. '/' .. id
+if ARGV[4] ~= '' then
+    redis.call('SET', ARGV[3] .. id, ARGV[4])
+else
+    redis.call('HMSET', ARGV[3] .. id, 'url', url, unpack(ARGV, 5))
+end
+redis.call('ZADD', KEYS[2], tonumber(ARGV[2]) or id, id)
+redis.call('INCR', KEYS[3])
+return {id, url}
@@ -0,0 +1,12 @@
+-- Removes an item and its id from the ordered index, returning how many of each were removed.
+-- Only an id found in the index is deleted: the id names a key of the list, and one that is not indexed is either
+-- no todo at all or an item of a cleared list, which is left for reclaiming.
+-- KEYS[1]: sorted set of ids, KEYS[2]: item hash, KEYS[3]: version of the list
+-- ARGV[1]: id
+local removed = redis.call('ZREM', KEYS[1], ARGV[1])
+if removed == 0 then
+    return {0, 0}
+end
+local deleted = redis.call('DEL', KEYS[2])
+redis.call('INCR', KEYS[3])
+return {removed, deleted}
@@ -0,0 +1,18 @@
+-- Moves up to ARGV[1] ids from the head of the legacy list of ids into the ordered index, scoring each by the
+-- order of its item or else by its id. Returns the number of ids left in the list; redis drops the list once empty.
+-- KEYS[1]: legacy list of ids, KEYS[2]: sorted set of ids
+-- ARGV[1]: ids to move, ARGV[2]: prefix of item keys
+if redis.call('TYPE', KEYS[1]).ok ~= 'list' then
+    return 0
+end
+local count = tonumber(ARGV[1])
+local ids = redis.call('LRANGE', KEYS[1], 0, count - 1)
+for _, id in ipairs(ids) do
+    local order = nil
+    if redis.call('TYPE', ARGV[2] .. id).ok == 'hash' then
+        order = tonumber(redis.call('HGET', ARGV[2] .. id, 'order'))
+    end
+    redis.call('ZADD', KEYS[2], order or tonumber(id) or 0, id)
+end
+redis.call('LTRIM', KEYS[1], count, -1)
+return redis.call('LLEN', KEYS[1])
@@ -0,0 +1,18 @@
+-- Deletes up to ARGV[1] items listed in a trash key left by clear.lua, and their ids. Returns the number of ids
+-- left; redis drops the trash key once empty, and it is then forgotten.
+-- KEYS[1]: trash key, KEYS[2]: set of trash keys awaiting reclaim
+-- ARGV[1]: items to delete, ARGV[2]: prefix of item keys
+local ids = redis.call('ZRANGE', KEYS[1], 0, tonumber(ARGV[1]) - 1)
+if #ids > 0 then
+    local keys = {}
+    for i, id in ipairs(ids) do
+        keys[i] = ARGV[2] .. id
+    end
+    redis.call('DEL', unpack(keys))
+    redis.call('ZREMRANGEBYRANK', KEYS[1], 0, #ids - 1)
+end
+local left = redis.call('ZCARD', KEYS[1])
+if left == 0 then
+    redis.call('SREM', KEYS[2], KEYS[1])
+end
+return left
@@ -0,0 +1,129 @@
+-- Sets the given fields of an existing item, moves it in the ordered index if its order changed and returns
+-- the updated fields, like HGETALL would, or an empty array when there is no such item. It never answers with an
+-- error, as it is also queued in transactions, where the redis client cannot decode one.
+-- The item may be stored as a hash or packed in a string (see ToDoItemCodec.pack); it is written back in the
+-- requested format, so items are converted as they are updated.
+-- KEYS[1]: item, KEYS[2]: sorted set of ids, KEYS[3]: version of the list
+-- ARGV[1]: id, ARGV[2]: 'packed' or 'hash', ARGV[3]: url of the item, ARGV[4..]: field/value pairs to set
+-- an item no longer indexed has been cleared, and is only waiting to be reclaimed
+local stored = redis.call('TYPE', KEYS[1]).ok
+if (stored ~= 'hash' and stored ~= 'string') or not redis.call('ZSCORE', KEYS[2], ARGV[1]) then
+    return {}
+end
+redis.call('INCR', KEYS[3])
+
+local function reorder()
+    for i = 4, #ARGV - 1, 2 do
+        if ARGV[i] == 'order' and tonumber(ARGV[i + 1]) then
+            redis.call('ZADD', KEYS[2], tonumber(ARGV[i + 1]), ARGV[1])
+        end
+    end
+end
+
+if stored == 'hash' and ARGV[2] == 'hash' then
+    if #ARGV > 3 then
+        redis.call('HMSET', KEYS[1], unpack(ARGV, 4))
+        reorder()
+    end
+    return redis.call('HGETALL', KEYS[1])
+end
+
+-- varints hold 6 bits per byte, 64 flagging that more bytes follow
+local function readVarint(s, pos)
+    local value, scale = 0, 1
+    while true do
+        local b = string.byte(s, pos)
+        pos = pos + 1
+        value = value + (b % 64) * scale
+        if b < 64 then
+            return value, pos
+        end
+        scale = scale * 64
+    end
+end
+
+local function writeVarint(n)
+    local out = {}
+    while n >= 64 do
+        out[#out + 1] = string.char(64 + n % 64)
+        n = math.floor(n / 64)
+    end
+    out[#out + 1] = string.char(n)
+    return table.concat(out)
+end
+
+local item = {}
+if stored == 'string' then
+    local packed = redis.call('GET', KEYS[1])
+    local flags = string.byte(packed, 1)
+    local pos = 2
+    item.completed = flags % 2 == 1
+    if math.floor(flags / 2) % 2 == 1 then
+        local zigzag
+        zigzag, pos = readVarint(packed, pos)
+        item.order = zigzag % 2 == 0 and zigzag / 2 or -(zigzag + 1) / 2
+    end
+    if math.floor(flags / 4) % 2 == 1 then
+        local length
+        length, pos = readVarint(packed, pos)
+        item.title = string.sub(packed, pos, pos + length - 1)
+    end
+else
+    local fields = redis.call('HGETALL', KEYS[1])
+    for i = 1, #fields - 1, 2 do
+        item[fields[i]] = fields[i + 1]
+    end
+    item.completed = item.completed == 'true'
+    item.order = tonumber(item.order)
+end
+
+for i = 4, #ARGV - 1, 2 do
+    local field, value = ARGV[i], ARGV[i + 1]
+    if field == 'completed' then
+        item.completed = value == 'true'
+    elseif field == 'order' then
+        item.order = tonumber(value)
+    elseif field ~= 'url' then
+        item[field] = value
+    end
+end
+reorder()
+
+local completed = item.completed and 'true' or 'false'
+redis.call('DEL', KEYS[1])
+if ARGV[2] == 'packed' then
+    local flags = 16 + (item.completed and 1 or 0)
+    local body = ''
+    if item.order then
+        flags = flags + 2
+        body = writeVarint(item.order >= 0 and item.order * 2 or -item.order * 2 - 1)
+    end
+    if item.title then
+        flags = flags + 4
+        body = body .. writeVarint(string.len(item.title)) .. item.title
+    end
+    redis.call('SET', KEYS[1], string.char(flags) .. body)
+    local reply = {'url', ARGV[3], 'completed', completed}
+    if item.title then
+        reply[#reply + 1] = 'title'
+        reply[#reply + 1] = item.title
+    end
+    if item.order then
+        reply[#reply + 1] = 'order'
+        reply[#reply + 1] = tostring(item.order)
+    end
+    return reply
+end
+
+item.url = item.url or ARGV[3]
+item.completed = completed
+if item.order then
+    item.order = tostring(item.order)
+end
+local fields = {}
+for field, value in pairs(item) do
+    fields[#fields + 1] = field
+    fields[#fields + 1] = value
+end
+redis.call('HMSET', KEYS[1], unpack(fields))
+return redis.call('HGETALL', KEYS[1])
@@ -0,0 +1,64 @@
+package io.vertx.example.todo;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.Json;
+import io.vertx.core.json.JsonObject;
+import io.vertx.example.todo.domain.ToDoItem;
+import io.vertx.example.todo.domain.ToDoItemCodec;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Compares the bytes allocated per operation by Json.decodeValue / Json.encode and by ToDoItemCodec, for a
+ * single item request body and for a list of 100 hashes as read from redis.
+ * <p>
+ * Usage: {@code CodecAllocationBenchmark [iterations]}. Needs a HotSpot JVM for per-thread allocation counters.
+ */
+public class CodecAllocationBenchmark {
+
+    private static final int ITEMS = 100;
+
+    public static void main(String[] args) {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        Buffer body = Buffer.buffer("{\"title\":\"Benchmark entry\",\"completed\":false,\"order\":7}");
+        JsonObject hash = new JsonObject().put("title", "Benchmark entry").put("completed", "false")
+            .put("url", "http://localhost:8000/todo/7").put("order", "7");
+        List<JsonObject> hashes = new ArrayList<>();
+        for (int i = 0; i < ITEMS; i++) {
+            hashes.add(hash.copy().put("url", "http://localhost:8000/todo/" + i));
+        }
+
+        System.out.printf("%-22s %15s %15s%n", "operation", "Json", "ToDoItemCodec");
+        report("decode body", iterations,
+            () -> Json.encode(Json.decodeValue(body.toString(), ToDoItem.class)),
+            () -> ToDoItemCodec.encode(ToDoItemCodec.decode(body)));
+        report("encode hash", iterations,
+            () -> Json.encode(Json.decodeValue(hash.encode(), ToDoItem.class)),
+            () -> ToDoItemCodec.encode(ToDoItemCodec.fromHash(hash)));
+        report("encode 100 hashes", iterations / ITEMS,
+            () -> Json.encode(hashes.stream()
+                .map(element -> Json.decodeValue(element.encode(), ToDoItem.class))
+                .collect(Collectors.toList())),
+            () -> ToDoItemCodec.encodeHashes(hashes));
+    }
+
+    private static void report(String name, int iterations, Runnable json, Runnable codec) {
+        // first pass warms up both paths
+        measure(json, iterations);
+        measure(codec, iterations);
+        System.out.printf("%-22s %11d B/op %11d B/op%n", name, measure(json, iterations), measure(codec, iterations));
+    }
+
+    private static long measure(Runnable operation, int iterations) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < iterations; i++) {
+            operation.run();
+        }
+        return (threads.getThreadAllocatedBytes(thread) - before) / iterations;
+    }
+}
@@ -0,0 +1,132 @@
+package io.vertx.example.todo;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.json.Json;
+import io.vertx.core.json.JsonObject;
+import io.vertx.example.todo.domain.ToDoItem;
+import io.vertx.example.todo.verticles.ToDoVerticle;
+import redis.embedded.RedisServer;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Measures the body bytes on the wire and the throughput of {@code GET /todo} without compression, and with
+ * {@code http.compression} answering gzip and deflate requests, against embedded redis.
+ * <p>
+ * Usage: {@code CompressionBenchmark [items]}. The run length per step is set with
+ * {@code -Dbench.duration=seconds}, the client concurrency with {@code -Dbench.connections=n} and the deflate level
+ * with {@code -Dhttp.compression.level=n}.
+ */
+public class CompressionBenchmark {
+
+    private static final int HTTP_PORT = 8091;
+    private static final int REDIS_PORT = 6391;
+
+    public static void main(String[] args) throws Exception {
+        int items = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int seconds = Integer.getInteger("bench.duration", 10);
+        int connections = Integer.getInteger("bench.connections", 64);
+
+        RedisServer redisServer = new RedisServer(REDIS_PORT);
+        redisServer.start();
+        Vertx server = Vertx.vertx();
+        Vertx client = Vertx.vertx();
+        // the client does not ask for compression itself, so bodies are counted as sent
+        HttpClient httpClient = client.createHttpClient(new HttpClientOptions()
+            .setDefaultPort(HTTP_PORT)
+            .setKeepAlive(true)
+            .setMaxPoolSize(connections));
+
+        try {
+            JsonObject config = new JsonObject().put("http.port", HTTP_PORT).put("redis.port", REDIS_PORT);
+            String plain = deploy(server, config);
+            for (int i = 0; i < items; i++) {
+                CompletableFuture<Void> created = new CompletableFuture<>();
+                httpClient.post("/todo", response -> response.bodyHandler(body -> created.complete(null)))
+                    .end(Json.encode(new ToDoItem("Benchmark entry " + i, i % 3 == 0)));
+                created.get();
+            }
+
+            System.out.printf("%-10s %15s %15s%n", "encoding", "bytes/response", "GET /todo");
+            run(httpClient, null, connections, 2);
+            report("off", httpClient, null, connections, seconds);
+            CompressionBenchmark.<Void>await(handler -> server.undeploy(plain, handler));
+
+            deploy(server, config.copy().put("http.compression", true));
+            run(httpClient, "gzip", connections, 2);
+            report("gzip", httpClient, "gzip", connections, seconds);
+            report("deflate", httpClient, "deflate", connections, seconds);
+        } finally {
+            client.close();
+            server.close();
+            redisServer.stop();
+        }
+        // embedded redis leaves a non-daemon log reader thread behind
+        System.exit(0);
+    }
+
+    private static String deploy(Vertx server, JsonObject config) throws Exception {
+        return CompressionBenchmark.<String>await(handler ->
+            server.deployVerticle(ToDoVerticle.class.getName(), new DeploymentOptions().setConfig(config), handler));
+    }
+
+    private static void report(String label, HttpClient httpClient, String encoding, int connections, int seconds)
+        throws Exception {
+        long[] result = run(httpClient, encoding, connections, seconds);
+        System.out.printf("%-10s %15d %11.0f r/s%n", label, result[1] / result[0], result[0] / (double) seconds);
+    }
+
+    /*
+     * Keeps the given number of requests outstanding for the given time, returning completed requests and the
+     * body bytes they received
+     */
+    private static long[] run(HttpClient httpClient, String encoding, int connections, int seconds) throws Exception {
+        AtomicLong completed = new AtomicLong();
+        AtomicLong bytes = new AtomicLong();
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        AtomicLong running = new AtomicLong(connections);
+
+        for (int i = 0; i < connections; i++) {
+            send(httpClient, encoding, deadline, completed, bytes, () -> {
+                if (running.decrementAndGet() == 0) {
+                    done.complete(null);
+                }
+            });
+        }
+        done.get();
+        return new long[]{completed.get(), bytes.get()};
+    }
+
+    private static void send(HttpClient httpClient, String encoding, long deadline, AtomicLong completed,
+                             AtomicLong bytes, Runnable onDone) {
+        httpClient.get("/todo", response -> response.bodyHandler(body -> {
+            completed.incrementAndGet();
+            bytes.addAndGet(body.length());
+            if (System.nanoTime() < deadline) {
+                send(httpClient, encoding, deadline, completed, bytes, onDone);
+            } else {
+                onDone.run();
+            }
+        })).putHeader("Accept-Encoding", encoding == null ? "identity" : encoding).end();
+    }
+
+    private static <T> T await(Consumer<Handler<AsyncResult<T>>> operation) throws Exception {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        operation.accept(result -> {
+            if (result.succeeded()) {
+                future.complete(result.result());
+            } else {
+                future.completeExceptionally(result.cause());
+            }
+        });
+        return future.get();
+    }
+}
@@ -0,0 +1,224 @@
+package io.vertx.example.todo;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpClientRequest;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.json.Json;
+import io.vertx.core.json.JsonObject;
+import io.vertx.example.todo.domain.ToDoItem;
+import io.vertx.example.todo.utils.Histogram;
+import io.vertx.example.todo.verticles.ToDoVerticle;
+import redis.embedded.RedisServer;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Drives each route of ToDoVerticle, deployed against embedded redis, at a series of fixed request rates and
+ * reports the throughput answered, the share shed with 503 and latency percentiles, to find where it saturates.
+ * <p>
+ * The load is open: requests are sent on schedule whether or not earlier ones were answered, and latency is
+ * measured from the scheduled time, so queueing in the client or the server is not hidden.
+ * <p>
+ * Usage: {@code LoadGenerator [rate ...]}, in requests per second, defaulting to 1000 2000 4000 8000. The run length
+ * per rate is set with {@code -Dload.duration=seconds}, the routes with {@code -Dload.routes=GET /todo,...},
+ * the client connections with {@code -Dload.connections=n} and the verticle instances with
+ * {@code -Dload.instances=n}. Options of the verticle, like {@code -Dhttp.inflight.max}, are passed as they are.
+ */
+public class LoadGenerator {
+
+    private static final int HTTP_PORT = 8092;
+    private static final int REDIS_PORT = 6392;
+    private static final int ITEMS = 100;
+    private static final List<String> ROUTES = Arrays.asList("GET /todo/:id", "GET /todo", "PATCH /todo/:id",
+        "POST /todo");
+    private static final long NANOS_PER_MILLI = 1_000_000L;
+
+    public static void main(String[] args) throws Exception {
+        int[] rates = args.length > 0 ? Arrays.stream(args).mapToInt(Integer::parseInt).toArray()
+            : new int[]{1000, 2000, 4000, 8000};
+        int seconds = Integer.getInteger("load.duration", 10);
+        int connections = Integer.getInteger("load.connections", 64);
+        int instances = Integer.getInteger("load.instances", 1);
+        String routes = System.getProperty("load.routes");
+
+        RedisServer redisServer = new RedisServer(REDIS_PORT);
+        redisServer.start();
+        Vertx server = Vertx.vertx();
+        Vertx client = Vertx.vertx();
+        HttpClientOptions clientOptions = new HttpClientOptions()
+            .setDefaultPort(HTTP_PORT)
+            .setKeepAlive(true)
+            .setMaxPoolSize(connections);
+
+        try {
+            JsonObject config = new JsonObject().put("http.port", HTTP_PORT).put("redis.port", REDIS_PORT);
+            LoadGenerator.<String>await(handler -> server.deployVerticle(ToDoVerticle.class.getName(),
+                new DeploymentOptions().setConfig(config).setInstances(instances), handler));
+            HttpClient seedClient = client.createHttpClient(clientOptions);
+            for (int i = 0; i < ITEMS; i++) {
+                CompletableFuture<Void> created = new CompletableFuture<>();
+                seedClient.post("/todo", response -> response.bodyHandler(body -> created.complete(null)))
+                    .end(Json.encode(new ToDoItem("Load entry " + i, false)));
+                created.get();
+            }
+            seedClient.close();
+
+            System.out.printf("%-16s %8s %10s %7s %9s %9s %9s%n", "route", "rate", "answered", "shed", "p50 ms",
+                "p99 ms", "p99.9 ms");
+            for (String route : routes == null ? ROUTES : Arrays.asList(routes.split(","))) {
+                for (int rate : rates) {
+                    new Run(client, clientOptions, route.trim(), rate, seconds).report();
+                }
+            }
+        } finally {
+            client.close();
+            server.close();
+            redisServer.stop();
+        }
+        // embedded redis leaves a non-daemon log reader thread behind
+        System.exit(0);
+    }
+
+    /*
+     * One route at one rate, sent from one event loop of the client
+     */
+    private static class Run {
+        private final Vertx client;
+        private final HttpClientOptions clientOptions;
+        private HttpClient httpClient;
+        private final String route;
+        private final int rate;
+        private final int seconds;
+
+        private final Histogram latency = new Histogram();
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+        // counted on the event loop, read by the main thread
+        private final AtomicLong answered = new AtomicLong();
+        private final AtomicLong shed = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private volatile long sent;
+        private volatile boolean sending = true;
+
+        Run(Vertx client, HttpClientOptions clientOptions, String route, int rate, int seconds) {
+            this.client = client;
+            this.clientOptions = clientOptions;
+            this.route = route;
+            this.rate = rate;
+            this.seconds = seconds;
+        }
+
+        void report() throws Exception {
+            long total = (long) rate * seconds;
+            long start = System.nanoTime();
+            client.runOnContext(v -> {
+                // created on the sending event loop, so that its connections and responses stay on it
+                httpClient = client.createHttpClient(clientOptions);
+                client.setPeriodic(1, timerId -> tick(timerId, start, total));
+            });
+            try {
+                done.get(seconds + 30, TimeUnit.SECONDS);
+            } catch (TimeoutException e) {
+                System.out.printf("%-16s %8d gave up waiting for %d responses%n", route, rate,
+                    sent - answered.get() - shed.get() - failed.get());
+            }
+            double elapsed = (System.nanoTime() - start) / 1e9;
+            client.runOnContext(v -> httpClient.close());
+            System.out.printf("%-16s %8d %6.0f r/s %6.1f%% %9.1f %9.1f %9.1f%s%n", route, rate,
+                answered.get() / elapsed, 100.0 * shed.get() / Math.max(1, sent),
+                latency.quantile(0.5) / (double) NANOS_PER_MILLI, latency.quantile(0.99) / (double) NANOS_PER_MILLI,
+                latency.quantile(0.999) / (double) NANOS_PER_MILLI,
+                failed.get() > 0 ? "  " + failed.get() + " failed" : "");
+        }
+
+        private void tick(long timerId, long start, long total) {
+            // sends every request whose time has come, each timed from when it was due
+            long due = Math.min(total, (System.nanoTime() - start) * rate / 1_000_000_000L);
+            for (long next = sent; next < due; next = ++sent) {
+                send(start + next * 1_000_000_000L / rate);
+            }
+            if (sent == total) {
+                client.cancelTimer(timerId);
+                sending = false;
+                completeIfDone();
+            }
+        }
+
+        private void send(long scheduled) {
+            int id = ThreadLocalRandom.current().nextInt(ITEMS) + 1;
+            HttpMethod method;
+            String uri;
+            String body = null;
+            switch (route) {
+                case "GET /todo":
+                    method = HttpMethod.GET;
+                    uri = "/todo";
+                    break;
+                case "GET /todo/:id":
+                    method = HttpMethod.GET;
+                    uri = "/todo/" + id;
+                    break;
+                case "PATCH /todo/:id":
+                    method = HttpMethod.PATCH;
+                    uri = "/todo/" + id;
+                    body = new JsonObject().put("completed", id % 2 == 0).encode();
+                    break;
+                case "POST /todo":
+                    method = HttpMethod.POST;
+                    uri = "/todo";
+                    body = Json.encode(new ToDoItem("Load entry", false));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown route: " + route);
+            }
+            HttpClientRequest request = httpClient.request(method, uri, response -> response.bodyHandler(b -> {
+                if (response.statusCode() == 503) {
+                    shed.incrementAndGet();
+                } else if (response.statusCode() < 400) {
+                    latency.record(System.nanoTime() - scheduled);
+                    answered.incrementAndGet();
+                } else {
+                    failed.incrementAndGet();
+                }
+                completeIfDone();
+            })).exceptionHandler(e -> {
+                failed.incrementAndGet();
+                completeIfDone();
+            });
+            if (body == null) {
+                request.end();
+            } else {
+                request.end(body);
+            }
+        }
+
+        private void completeIfDone() {
+            if (!sending && answered.get() + shed.get() + failed.get() == sent) {
+                done.complete(null);
+            }
+        }
+    }
+
+    private static <T> T await(Consumer<Handler<AsyncResult<T>>> operation) throws Exception {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        operation.accept(result -> {
+            if (result.succeeded()) {
+                future.complete(result.result());
+            } else {
+                future.completeExceptionally(result.cause());
+            }
+        });
+        return future.get();
+    }
+}
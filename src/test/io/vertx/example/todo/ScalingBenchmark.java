@@ -0,0 +1,128 @@
+package io.vertx.example.todo;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.VertxOptions;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.json.Json;
+import io.vertx.core.json.JsonObject;
+import io.vertx.example.todo.domain.ToDoItem;
+import io.vertx.example.todo.verticles.ToDoVerticle;
+import redis.embedded.RedisServer;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Measures request throughput of ToDoVerticle deployed with 1, 2, 4 ... N instances against embedded redis.
+ * <p>
+ * Usage: {@code ScalingBenchmark [maxInstances]}, defaulting to the number of cores. The run length per step
+ * is set with {@code -Dbench.duration=seconds} and the client concurrency with {@code -Dbench.connections=n}.
+ */
+public class ScalingBenchmark {
+
+    private static final int HTTP_PORT = 8090;
+    private static final int REDIS_PORT = 6390;
+    private static final int ITEMS = 100;
+
+    public static void main(String[] args) throws Exception {
+        int cores = Runtime.getRuntime().availableProcessors();
+        int maxInstances = args.length > 0 ? Integer.parseInt(args[0]) : cores;
+        int seconds = Integer.getInteger("bench.duration", 10);
+        int connections = Integer.getInteger("bench.connections", 64);
+
+        RedisServer redisServer = new RedisServer(REDIS_PORT);
+        redisServer.start();
+        Vertx server = Vertx.vertx(new VertxOptions().setEventLoopPoolSize(Math.max(maxInstances, cores)));
+        Vertx client = Vertx.vertx();
+        HttpClient httpClient = client.createHttpClient(new HttpClientOptions()
+            .setDefaultPort(HTTP_PORT)
+            .setKeepAlive(true)
+            .setMaxPoolSize(connections));
+
+        try {
+            JsonObject config = new JsonObject().put("http.port", HTTP_PORT).put("redis.port", REDIS_PORT);
+            String seedDeployment = ScalingBenchmark.<String>await(handler ->
+                server.deployVerticle(ToDoVerticle.class.getName(), new DeploymentOptions().setConfig(config), handler));
+            for (int i = 0; i < ITEMS; i++) {
+                CompletableFuture<Void> created = new CompletableFuture<>();
+                httpClient.post("/todo", response -> response.bodyHandler(body -> created.complete(null)))
+                    .end(Json.encode(new ToDoItem("Benchmark entry " + i, false)));
+                created.get();
+            }
+            ScalingBenchmark.<Void>await(handler -> server.undeploy(seedDeployment, handler));
+
+            System.out.printf("%-10s %15s %15s%n", "instances", "GET /todo/1", "GET /todo");
+            for (int instances = 1; instances <= maxInstances; instances = nextStep(instances, maxInstances)) {
+                DeploymentOptions options = new DeploymentOptions().setConfig(config).setInstances(instances);
+                String deployment = ScalingBenchmark.<String>await(handler ->
+                    server.deployVerticle(ToDoVerticle.class.getName(), options, handler));
+
+                run(httpClient, "/todo/1", connections, 2);
+                double single = run(httpClient, "/todo/1", connections, seconds);
+                double list = run(httpClient, "/todo", connections, seconds);
+                System.out.printf("%-10d %11.0f r/s %11.0f r/s%n", instances, single, list);
+
+                ScalingBenchmark.<Void>await(handler -> server.undeploy(deployment, handler));
+            }
+        } finally {
+            client.close();
+            server.close();
+            redisServer.stop();
+        }
+        // embedded redis leaves a non-daemon log reader thread behind
+        System.exit(0);
+    }
+
+    private static int nextStep(int instances, int maxInstances) {
+        return instances < maxInstances && instances * 2 > maxInstances ? maxInstances : instances * 2;
+    }
+
+    /*
+     * Keeps the given number of requests outstanding for the given time, returning completed requests per second
+     */
+    private static double run(HttpClient httpClient, String uri, int connections, int seconds) throws Exception {
+        AtomicLong completed = new AtomicLong();
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        AtomicLong running = new AtomicLong(connections);
+        long start = System.nanoTime();
+
+        for (int i = 0; i < connections; i++) {
+            send(httpClient, uri, deadline, completed, () -> {
+                if (running.decrementAndGet() == 0) {
+                    done.complete(null);
+                }
+            });
+        }
+        done.get();
+        return completed.get() / ((System.nanoTime() - start) / 1e9);
+    }
+
+    private static void send(HttpClient httpClient, String uri, long deadline, AtomicLong completed, Runnable onDone) {
+        httpClient.getNow(uri, response -> response.bodyHandler(body -> {
+            completed.incrementAndGet();
+            if (System.nanoTime() < deadline) {
+                send(httpClient, uri, deadline, completed, onDone);
+            } else {
+                onDone.run();
+            }
+        }));
+    }
+
+    private static <T> T await(Consumer<Handler<AsyncResult<T>>> operation) throws Exception {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        operation.accept(result -> {
+            if (result.succeeded()) {
+                future.complete(result.result());
+            } else {
+                future.completeExceptionally(result.cause());
+            }
+        });
+        return future.get();
+    }
+}
@@ -0,0 +1,98 @@
+package io.vertx.example.todo;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.example.todo.domain.ToDoItem;
+import io.vertx.example.todo.domain.ToDoItemCodec;
+import io.vertx.redis.RedisClient;
+import io.vertx.redis.RedisOptions;
+import redis.embedded.RedisServer;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * Compares the redis memory taken per todo by the hash format and by the packed format of
+ * {@code todo.storage.compact}, as reported by {@code INFO memory} of embedded redis.
+ * <p>
+ * Usage: {@code StorageMemoryBenchmark [items]}.
+ */
+public class StorageMemoryBenchmark {
+
+    private static final int REDIS_PORT = 6393;
+    private static final int BATCH = 1000;
+    private static final String URL = "http://localhost:8000/todo/";
+
+    public static void main(String[] args) throws Exception {
+        int items = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+
+        RedisServer redisServer = new RedisServer(REDIS_PORT);
+        redisServer.start();
+        Vertx vertx = Vertx.vertx();
+        RedisClient redis = RedisClient.create(vertx, new RedisOptions().setPort(REDIS_PORT));
+
+        try {
+            System.out.printf("%-8s %15s%n", "format", "memory");
+            report("hash", redis, items, (id, item, done) -> {
+                item.setUrl(URL + id);
+                redis.hmset(id, ToDoItem.toJsonObject(item), done::handle);
+            });
+            report("packed", redis, items, (id, item, done) -> redis.set(id, ToDoItemCodec.pack(item), done::handle));
+        } finally {
+            redis.close(result -> vertx.close());
+            redisServer.stop();
+        }
+        // embedded redis leaves a non-daemon log reader thread behind
+        System.exit(0);
+    }
+
+    private static void report(String format, RedisClient redis, int items, Write write) throws Exception {
+        StorageMemoryBenchmark.<String>await(redis::flushdb);
+        long before = usedMemory(redis);
+        for (int start = 0; start < items; start += BATCH) {
+            CompletableFuture<Void> written = new CompletableFuture<>();
+            int end = Math.min(items, start + BATCH);
+            for (int i = start; i < end; i++) {
+                ToDoItem item = new ToDoItem("Benchmark entry " + i, i % 3 == 0);
+                item.setOrder(i);
+                boolean last = i == end - 1;
+                write.write(String.valueOf(i), item, result -> {
+                    if (result.failed()) {
+                        written.completeExceptionally(result.cause());
+                    } else if (last) {
+                        written.complete(null);
+                    }
+                });
+            }
+            written.get();
+        }
+        System.out.printf("%-8s %10d B/item%n", format, (usedMemory(redis) - before) / items);
+    }
+
+    private static long usedMemory(RedisClient redis) throws Exception {
+        JsonObject info = StorageMemoryBenchmark.<JsonObject>await(handler -> redis.infoSection("memory", handler));
+        JsonObject memory = info.getJsonObject("memory", info);
+        return Long.parseLong(memory.getString("used_memory"));
+    }
+
+    private static <T> T await(Consumer<Handler<AsyncResult<T>>> operation) throws Exception {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        operation.accept(result -> {
+            if (result.succeeded()) {
+                future.complete(result.result());
+            } else {
+                future.completeExceptionally(result.cause());
+            }
+        });
+        return future.get();
+    }
+
+    /*
+     * Sends the command storing one item under its id
+     */
+    private interface Write {
+        void write(String id, ToDoItem item, Handler<AsyncResult<?>> done);
+    }
+}
@@ -1,36 +1,59 @@
 package io.vertx.example.todo.verticles;
 
 import io.netty.handler.codec.http.HttpResponseStatus;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Handler;
 import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpMethod;
 import io.vertx.core.json.Json;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.example.todo.domain.ToDoItem;
+import io.vertx.example.todo.domain.ToDoItemCodec;
 import io.vertx.ext.unit.Async;
 import io.vertx.ext.unit.TestContext;
 import io.vertx.ext.unit.junit.VertxUnitRunner;
+import io.vertx.redis.RedisClient;
+import io.vertx.redis.RedisOptions;
+import io.vertx.redis.op.KillFilter;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import redis.embedded.RedisServer;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
 @RunWith(VertxUnitRunner.class)
 public class ToDoVerticleTest {
     private Vertx vertx;
+    private String deploymentId;
     private static RedisServer redisServer;
+    private RedisServer replicaServer;
     private final static int PORT = 8000;
+    private final static int OTHER_PORT = 8001;
 
     @Before
     public void setUp(TestContext context) throws Exception {
         redisServer = new RedisServer(6379);
         redisServer.start();
         vertx = Vertx.vertx();
-        vertx.deployVerticle(new ToDoVerticle(), context.asyncAssertSuccess());
+        vertx.deployVerticle(new ToDoVerticle(), context.asyncAssertSuccess(id -> deploymentId = id));
     }
 
     @After
     public void tearDown(TestContext context) {
+        if (replicaServer != null) {
+            replicaServer.stop();
+        }
         redisServer.stop();
         vertx.close(context.asyncAssertSuccess());
     }
@@ -104,6 +127,109 @@ public class ToDoVerticleTest {
         ).end(Json.encode(todo));
     }
 
+    @Test
+    public void testClearAllToDoKeepsOtherKeys(TestContext context) {
+        final Async async = context.async();
+        RedisClient redis = RedisClient.create(vertx, new RedisOptions());
+        JsonObject config = new JsonObject().put("todo.namespace", "todo:").put("todo.clear.batch", 2);
+        redis.set("other", "kept", context.asyncAssertSuccess(set -> redeploy(context, config, () ->
+            createToDos(context, 5, () ->
+                vertx.createHttpClient().delete(PORT, "localhost", "/todo", deleteResponse -> {
+                    context.assertEquals(HttpResponseStatus.NO_CONTENT.code(), deleteResponse.statusCode());
+                    vertx.setPeriodic(20, timerId -> redis.keys("*", context.asyncAssertSuccess(keys -> {
+                        if (keys.contains("todo:1") || keys.contains("todo:5") || keys.contains("todo:trash")) {
+                            return;
+                        }
+                        vertx.cancelTimer(timerId);
+                        context.assertTrue(keys.contains("other"));
+                        vertx.createHttpClient().post(PORT, "localhost", "/todo", postResponse ->
+                            postResponse.bodyHandler(body -> {
+                                context.assertTrue(body.toJsonObject().getString("url").endsWith("/todo/6"));
+                                async.complete();
+                            })
+                        ).end(Json.encode(new ToDoItem("Test entry", false)));
+                    })));
+                }).end()
+            )
+        )));
+    }
+
+    @Test
+    public void testListsAreSeparate(TestContext context) {
+        final Async async = context.async();
+        RedisClient redis = RedisClient.create(vertx, new RedisOptions());
+        createToDos(context, 1, () ->
+            vertx.createHttpClient().post(PORT, "localhost", "/lists/alice/todo", postResponse ->
+                postResponse.bodyHandler(posted -> {
+                    context.assertEquals(HttpResponseStatus.CREATED.code(), postResponse.statusCode());
+                    String url = posted.toJsonObject().getString("url");
+                    context.assertTrue(url.endsWith("/lists/alice/todo/1"));
+                    vertx.createHttpClient().getNow(PORT, "localhost", getRequestUri(url), getResponse ->
+                        getResponse.bodyHandler(item -> {
+                            context.assertEquals("Alice's entry", item.toJsonObject().getString("title"));
+                            vertx.createHttpClient().getNow(PORT, "localhost", "/lists/bob/todo", bobResponse ->
+                                bobResponse.bodyHandler(bobList -> {
+                                    context.assertEquals(new JsonArray(), bobList.toJsonArray());
+                                    redis.exists("{alice}:1", context.asyncAssertSuccess(exists -> {
+                                        context.assertEquals(1L, exists);
+                                        vertx.createHttpClient().getNow(PORT, "localhost", "/lists/a:b/todo",
+                                            badResponse -> {
+                                                context.assertEquals(HttpResponseStatus.BAD_REQUEST.code(),
+                                                    badResponse.statusCode());
+                                                async.complete();
+                                            });
+                                    }));
+                                }));
+                        }));
+                })
+            ).end(Json.encode(new ToDoItem("Alice's entry", false)))
+        );
+    }
+
+    @Test
+    public void testReadsGoToFreshReplicas(TestContext context) {
+        final Async async = context.async();
+        replicaServer = RedisServer.builder().port(6380).slaveOf("127.0.0.1", 6379).build();
+        replicaServer.start();
+        RedisClient replica = RedisClient.create(vertx, new RedisOptions().setPort(6380));
+        JsonObject config = new JsonObject()
+            .put("redis.replicas", "127.0.0.1:6380")
+            .put("redis.replica.staleness", 500);
+        redeploy(context, config, () -> createToDos(context, 1, () ->
+            vertx.setPeriodic(50, timerId -> replica.exists("1", context.asyncAssertSuccess(exists -> {
+                if (exists == 0) {
+                    return;
+                }
+                vertx.cancelTimer(timerId);
+                // once detached, the replica keeps serving reads until its last heartbeat is too old
+                vertx.setTimer(200, waited -> replica.slaveofNoone(context.asyncAssertSuccess(detached ->
+                    replica.hset("1", "title", "From replica", context.asyncAssertSuccess(set ->
+                        vertx.createHttpClient().getNow(PORT, "localhost", "/todo/1", fresh -> fresh.bodyHandler(body -> {
+                            context.assertEquals("From replica", body.toJsonObject().getString("title"));
+                            vertx.setTimer(1000, expired ->
+                                vertx.createHttpClient().getNow(PORT, "localhost", "/todo/1", stale ->
+                                    stale.bodyHandler(primaryBody -> {
+                                        context.assertEquals("Test entry 0", primaryBody.toJsonObject().getString("title"));
+                                        async.complete();
+                                    })));
+                        }))
+                    ))
+                )));
+            })))
+        ));
+    }
+
+    @Test
+    public void testRedisHostIsUsed(TestContext context) {
+        final Async async = context.async();
+        // a host that never resolves, so nothing reaches the local redis
+        redeploy(context, new JsonObject().put("redis.host", "redis.invalid"), () ->
+            vertx.createHttpClient().getNow(PORT, "localhost", "/todo", response -> {
+                context.assertEquals(HttpResponseStatus.INTERNAL_SERVER_ERROR.code(), response.statusCode());
+                async.complete();
+            }));
+    }
+
     @Test
     public void testDeleteToDo(TestContext context) {
         final Async async = context.async();
@@ -123,6 +249,36 @@ public class ToDoVerticleTest {
         ).end(Json.encode(todo));
     }
 
+    @Test
+    public void testDeleteOfNonMemberLeavesListUntouched(TestContext context) {
+        final Async async = context.async();
+        RedisClient redis = RedisClient.create(vertx, new RedisOptions());
+        // an item key that is not in the index, as left by a clear until it is reclaimed
+        createToDos(context, 2, () -> redis.set("42", "not indexed", set ->
+            deleteNotFound(context, Arrays.asList("todos", "index", "version", "42", "-1"), () ->
+                vertx.createHttpClient().getNow(PORT, "localhost", "/todo", response -> response.bodyHandler(body -> {
+                    context.assertEquals(2, body.toJsonArray().size());
+                    redis.exists("42", exists -> {
+                        context.assertEquals(1L, exists.result());
+                        vertx.createHttpClient().post(PORT, "localhost", "/todo", postResponse -> postResponse.bodyHandler(posted -> {
+                            context.assertTrue(posted.toJsonObject().getString("url").endsWith("/todo/3"));
+                            async.complete();
+                        })).end(Json.encode(new ToDoItem("Test entry 2", false)));
+                    });
+                })))));
+    }
+
+    private void deleteNotFound(TestContext context, List<String> ids, Runnable onDeleted) {
+        if (ids.isEmpty()) {
+            onDeleted.run();
+            return;
+        }
+        vertx.createHttpClient().delete(PORT, "localhost", "/todo/" + ids.get(0), response -> {
+            context.assertEquals(HttpResponseStatus.NOT_FOUND.code(), response.statusCode());
+            deleteNotFound(context, ids.subList(1, ids.size()), onDeleted);
+        }).end();
+    }
+
     @Test
     public void testUpdateToDo(TestContext context) {
         final Async async = context.async();
@@ -144,6 +300,841 @@ public class ToDoVerticleTest {
     }
 
 
+    @Test
+    public void testGetAllToDoKeepsCreationOrder(TestContext context) {
+        final Async async = context.async();
+        createToDos(context, 25, () ->
+            vertx.createHttpClient().getNow(PORT, "localhost", "/todo",
+                response -> response.bodyHandler(body -> {
+                    JsonArray todos = body.toJsonArray();
+                    context.assertEquals(25, todos.size());
+                    for (int i = 0; i < todos.size(); i++) {
+                        context.assertEquals("Test entry " + i, todos.getJsonObject(i).getString("title"));
+                    }
+                    async.complete();
+                })
+            )
+        );
+    }
+
+    @Test
+    public void testGetAllToDoSortedByOrder(TestContext context) {
+        final Async async = context.async();
+        createToDos(context, 3, () ->
+            vertx.createHttpClient().put(PORT, "localhost", "/todo/3", putResponse -> {
+                context.assertEquals(HttpResponseStatus.OK.code(), putResponse.statusCode());
+                vertx.createHttpClient().getNow(PORT, "localhost", "/todo", response -> response.bodyHandler(body -> {
+                    JsonArray todos = body.toJsonArray();
+                    context.assertEquals("Test entry 2", todos.getJsonObject(0).getString("title"));
+                    context.assertEquals("Test entry 0", todos.getJsonObject(1).getString("title"));
+                    context.assertEquals("Test entry 1", todos.getJsonObject(2).getString("title"));
+                    async.complete();
+                }));
+            }).end(new JsonObject().put("order", 0).encode())
+        );
+    }
+
+    @Test
+    public void testLegacyKeysMigrated(TestContext context) {
+        final Async async = context.async();
+        RedisClient redis = RedisClient.create(vertx, new RedisOptions());
+        redis.hmset("1", new JsonObject().put("title", "First").put("completed", "false"), first ->
+            redis.hmset("2", new JsonObject().put("title", "Second").put("completed", "true"), second ->
+                redis.rpush("keys", "2", pushed -> redis.rpush("keys", "1", pushedAgain ->
+                    redeploy(context, new JsonObject(), () ->
+                        vertx.createHttpClient().getNow(PORT, "localhost", "/todo", response -> response.bodyHandler(body -> {
+                            JsonArray todos = body.toJsonArray();
+                            context.assertEquals(2, todos.size());
+                            context.assertEquals("First", todos.getJsonObject(0).getString("title"));
+                            context.assertTrue(todos.getJsonObject(1).getBoolean("completed"));
+                            redis.exists("keys", exists -> {
+                                context.assertEquals(0L, exists.result());
+                                async.complete();
+                            });
+                        }))
+                    )))));
+    }
+
+    @Test
+    public void testCompactStorageReadsBothFormats(TestContext context) {
+        final Async async = context.async();
+        // item 1 is stored as a hash, item 2 packed
+        createToDos(context, 1, () -> redeploy(context, new JsonObject().put("todo.storage.compact", true), () ->
+            vertx.createHttpClient().post(PORT, "localhost", "/todo", postResponse -> postResponse.bodyHandler(posted -> {
+                context.assertEquals(HttpResponseStatus.CREATED.code(), postResponse.statusCode());
+                vertx.createHttpClient().put(PORT, "localhost", "/todo/2", putResponse -> putResponse.bodyHandler(put -> {
+                    JsonObject updated = put.toJsonObject();
+                    context.assertEquals("\u00dcn\u00efcode \u2713 changed", updated.getString("title"));
+                    context.assertEquals(-5, updated.getInteger("order"));
+                    context.assertTrue(updated.getBoolean("completed"));
+                    context.assertEquals("http://localhost:" + PORT + "/todo/2", updated.getString("url"));
+                    vertx.createHttpClient().getNow(PORT, "localhost", "/todo/2", getResponse -> getResponse.bodyHandler(read -> {
+                        context.assertEquals("http://localhost:" + PORT + "/todo/2", read.toJsonObject().getString("url"));
+                        assertHashConvertedOnUpdate(context, async);
+                    }));
+                })).end(new JsonObject().put("title", "\u00dcn\u00efcode \u2713 changed").put("completed", true).encode());
+            })).end(new JsonObject().put("title", "\u00dcn\u00efcode \u2713").put("order", -5).encode())
+        ));
+    }
+
+    @Test
+    public void testPackedFormatRoundTripsThroughUpdateScript(TestContext context) {
+        final Async async = context.async();
+        // longer than 63 UTF-8 bytes, so its length takes two varint bytes
+        String title = "\u00dcn\u00efcode \u2713 title long enough to need a second length byte \u2713\u2713";
+        ToDoItem javaPacked = new ToDoItem(title, false);
+        javaPacked.setOrder(-100000);
+        ToDoItem luaPacked = new ToDoItem(title + " changed", false);
+        luaPacked.setOrder(1000000);
+        // item 1 is stored as a hash and packed by the update script, item 2 is packed by the verticle
+        createToDos(context, 1, () -> redeploy(context, new JsonObject().put("todo.storage.compact", true), () ->
+            vertx.createHttpClient().post(PORT, "localhost", "/todo", postResponse -> postResponse.bodyHandler(posted ->
+                // the script decodes the packed item to merge the change, then packs it again
+                vertx.createHttpClient().request(HttpMethod.PATCH, PORT, "localhost", "/todo/2", patched -> patched.bodyHandler(patchedBody -> {
+                    context.assertEquals(HttpResponseStatus.OK.code(), patched.statusCode());
+                    javaPacked.setCompleted(true);
+                    assertPacked(context, "2", javaPacked, () ->
+                        vertx.createHttpClient().request(HttpMethod.PATCH, PORT, "localhost", "/todo/1", converted -> converted.bodyHandler(convertedBody -> {
+                            context.assertEquals(HttpResponseStatus.OK.code(), converted.statusCode());
+                            assertPacked(context, "1", luaPacked, () ->
+                                vertx.createHttpClient().getNow(PORT, "localhost", "/todo/1", read -> read.bodyHandler(readBody -> {
+                                    JsonObject item = readBody.toJsonObject();
+                                    context.assertEquals(luaPacked.getTitle(), item.getString("title"));
+                                    context.assertEquals(luaPacked.getOrder(), item.getInteger("order"));
+                                    context.assertFalse(item.getBoolean("completed"));
+                                    async.complete();
+                                })));
+                        })).end(new JsonObject().put("title", luaPacked.getTitle()).put("order", luaPacked.getOrder()).encode()));
+                })).end(new JsonObject().put("completed", true).encode())
+            )).end(Json.encode(javaPacked))
+        ));
+    }
+
+    /*
+     * Checks the value stored in redis byte for byte against what ToDoItemCodec packs for the item
+     */
+    private void assertPacked(TestContext context, String id, ToDoItem expected, Runnable onPacked) {
+        RedisClient redis = RedisClient.create(vertx, new RedisOptions());
+        redis.getBinary(id, stored -> {
+            context.assertEquals(Buffer.buffer(ToDoItemCodec.pack(expected), StandardCharsets.UTF_8.name()), stored.result());
+            redis.close(closed -> onPacked.run());
+        });
+    }
+
+    private void assertHashConvertedOnUpdate(TestContext context, Async async) {
+        RedisClient redis = RedisClient.create(vertx, new RedisOptions());
+        vertx.createHttpClient().getNow(PORT, "localhost", "/todo/1", getResponse -> getResponse.bodyHandler(hash -> {
+            context.assertEquals("Test entry 0", hash.toJsonObject().getString("title"));
+            context.assertEquals("http://localhost:" + PORT + "/todo/1", hash.toJsonObject().getString("url"));
+            vertx.createHttpClient().put(PORT, "localhost", "/todo/1", putResponse -> {
+                context.assertEquals(HttpResponseStatus.OK.code(), putResponse.statusCode());
+                vertx.createHttpClient().getNow(PORT, "localhost", "/todo", response -> response.bodyHandler(body -> {
+                    JsonArray todos = body.toJsonArray();
+                    context.assertEquals(2, todos.size());
+                    context.assertTrue(todos.getJsonObject(0).getString("url").endsWith("/todo/2"));
+                    context.assertEquals("Test entry 0", todos.getJsonObject(1).getString("title"));
+                    context.assertEquals("http://localhost:" + PORT + "/todo/1", todos.getJsonObject(1).getString("url"));
+                    context.assertTrue(todos.getJsonObject(1).getBoolean("completed"));
+                    redis.type("1", type -> {
+                        context.assertEquals("string", type.result());
+                        async.complete();
+                    });
+                }));
+            }).end(new JsonObject().put("completed", true).encode());
+        }));
+    }
+
+    @Test
+    public void testStreamAllToDo(TestContext context) {
+        final Async async = context.async();
+        JsonObject config = new JsonObject().put("todo.stream", true).put("redis.batch.size", 4);
+        redeploy(context, config, () -> createToDos(context, 25, () ->
+            vertx.createHttpClient().getNow(PORT, "localhost", "/todo", response -> {
+                context.assertEquals("chunked", response.getHeader("transfer-encoding"));
+                response.bodyHandler(body -> {
+                    JsonArray todos = body.toJsonArray();
+                    context.assertEquals(25, todos.size());
+                    for (int i = 0; i < todos.size(); i++) {
+                        context.assertEquals("Test entry " + i, todos.getJsonObject(i).getString("title"));
+                    }
+                    async.complete();
+                });
+            })
+        ));
+    }
+
+    @Test
+    public void testGetAllToDoPaged(TestContext context) {
+        final Async async = context.async();
+        createToDos(context, 5, () ->
+            vertx.createHttpClient().getNow(PORT, "localhost", "/todo?limit=3", firstResponse -> {
+                context.assertEquals(HttpResponseStatus.OK.code(), firstResponse.statusCode());
+                String cursor = firstResponse.getHeader("X-Next-Cursor");
+                context.assertNotNull(cursor);
+                firstResponse.bodyHandler(firstPage -> {
+                    context.assertEquals(3, firstPage.toJsonArray().size());
+                    context.assertEquals("Test entry 0", firstPage.toJsonArray().getJsonObject(0).getString("title"));
+                    vertx.createHttpClient().getNow(PORT, "localhost", "/todo?limit=3&cursor=" + cursor,
+                        secondResponse -> {
+                            context.assertNull(secondResponse.getHeader("X-Next-Cursor"));
+                            secondResponse.bodyHandler(secondPage -> {
+                                context.assertEquals(2, secondPage.toJsonArray().size());
+                                context.assertEquals("Test entry 3",
+                                    secondPage.toJsonArray().getJsonObject(0).getString("title"));
+                                async.complete();
+                            });
+                        });
+                });
+            })
+        );
+    }
+
+    @Test
+    public void testGetAllToDoInvalidCursor(TestContext context) {
+        final Async async = context.async();
+        vertx.createHttpClient().getNow(PORT, "localhost", "/todo?limit=3&cursor=not-a-cursor", response -> {
+            context.assertEquals(HttpResponseStatus.BAD_REQUEST.code(), response.statusCode());
+            async.complete();
+        });
+    }
+
+    @Test
+    public void testCachedToDoIsInvalidatedOnUpdate(TestContext context) {
+        final Async async = context.async();
+        redeploy(context, new JsonObject().put("todo.cache.enabled", true), () -> createToDos(context, 1, () ->
+            vertx.createHttpClient().getNow(PORT, "localhost", "/todo/1", firstGet -> firstGet.bodyHandler(first ->
+                vertx.createHttpClient().getNow(PORT, "localhost", "/todo/1", secondGet -> secondGet.bodyHandler(second -> {
+                    context.assertEquals(first.toJsonObject(), second.toJsonObject());
+                    vertx.createHttpClient().put(PORT, "localhost", "/todo/1", putResponse ->
+                        putResponse.bodyHandler(updated ->
+                            vertx.createHttpClient().getNow(PORT, "localhost", "/todo/1", thirdGet ->
+                                thirdGet.bodyHandler(third -> {
+                                    context.assertEquals("Title changed", third.toJsonObject().getString("title"));
+                                    vertx.createHttpClient().getNow(PORT, "localhost", "/stats/cache", stats ->
+                                        stats.bodyHandler(statsBody -> {
+                                            JsonObject items = statsBody.toJsonObject().getJsonObject("items");
+                                            context.assertEquals(1L, items.getLong("hits"));
+                                            context.assertEquals(2L, items.getLong("misses"));
+                                            async.complete();
+                                        }));
+                                }))
+                        )
+                    ).end(new JsonObject().put("title", "Title changed").encode());
+                }))
+            ))
+        ));
+    }
+
+    @Test
+    public void testCacheHitDoesNotReadVersion(TestContext context) {
+        final Async async = context.async();
+        redeploy(context, new JsonObject().put("todo.cache.enabled", true), () -> createToDos(context, 1, () ->
+            vertx.createHttpClient().getNow(PORT, "localhost", "/todo/1", miss -> miss.bodyHandler(missBody ->
+                readCommandCount(context, "GET", before ->
+                    vertx.createHttpClient().getNow(PORT, "localhost", "/todo/1", hit -> hit.bodyHandler(hitBody -> {
+                        context.assertEquals(miss.getHeader("ETag"), hit.getHeader("ETag"));
+                        context.assertEquals(missBody.toJsonObject(), hitBody.toJsonObject());
+                        readCommandCount(context, "GET", after -> {
+                            context.assertEquals(before, after);
+                            // a client holding the tag still has the version checked against redis
+                            vertx.createHttpClient().get(PORT, "localhost", "/todo/1", revalidated -> {
+                                context.assertEquals(HttpResponseStatus.NOT_MODIFIED.code(), revalidated.statusCode());
+                                readCommandCount(context, "GET", last -> {
+                                    context.assertEquals(before + 1, last);
+                                    async.complete();
+                                });
+                            }).putHeader("If-None-Match", hit.getHeader("ETag")).end();
+                        });
+                    }))
+                ))
+            )
+        ));
+    }
+
+    /*
+     * Reads from /metrics how many replies to a redis command were received so far
+     */
+    private void readCommandCount(TestContext context, String command, Handler<Long> onCount) {
+        String sample = "todo_redis_command_duration_seconds_count{command=\"" + command + "\"} ";
+        vertx.createHttpClient().getNow(PORT, "localhost", "/metrics", response -> response.bodyHandler(body -> {
+            for (String line : body.toString().split("\n")) {
+                if (line.startsWith(sample)) {
+                    onCount.handle(Long.parseLong(line.substring(sample.length()).trim()));
+                    return;
+                }
+            }
+            context.fail("No " + command + " in metrics");
+        }));
+    }
+
+    @Test
+    public void testUpdateEvictsCacheOfOtherInstance(TestContext context) {
+        final Async async = context.async();
+        JsonObject config = new JsonObject().put("todo.cache.enabled", true);
+        redeploy(context, config, () -> vertx.deployVerticle(new ToDoVerticle(),
+            new DeploymentOptions().setConfig(config.copy().put("http.port", OTHER_PORT)), context.asyncAssertSuccess(other ->
+                createToDos(context, 1, () ->
+                    vertx.createHttpClient().getNow(OTHER_PORT, "localhost", "/todo", cached -> cached.bodyHandler(cachedBody -> {
+                        context.assertEquals("Test entry 0", cachedBody.toJsonArray().getJsonObject(0).getString("title"));
+                        vertx.createHttpClient().put(PORT, "localhost", "/todo/1", putResponse -> putResponse.bodyHandler(updated ->
+                            awaitListEvicted(context, OTHER_PORT, 50, () ->
+                                vertx.createHttpClient().getNow(OTHER_PORT, "localhost", "/todo", read -> read.bodyHandler(readBody -> {
+                                    context.assertEquals("Title changed", readBody.toJsonArray().getJsonObject(0).getString("title"));
+                                    async.complete();
+                                })))
+                        )).end(new JsonObject().put("title", "Title changed").encode());
+                    }))
+                ))));
+    }
+
+    @Test
+    public void testInvalidationsSurviveReconnect(TestContext context) {
+        final Async async = context.async();
+        RedisClient redis = RedisClient.create(vertx, new RedisOptions());
+        JsonObject config = new JsonObject().put("todo.cache.enabled", true).put("todo.subscribe.check", 50);
+        redeploy(context, config, () -> vertx.deployVerticle(new ToDoVerticle(),
+            new DeploymentOptions().setConfig(config.copy().put("http.port", OTHER_PORT)), context.asyncAssertSuccess(other ->
+                createToDos(context, 1, () -> redis.clientKill(new KillFilter().setType(KillFilter.Type.PUBSUB), killed ->
+                    // the subscription is restored within a check period, and lets invalidations through again
+                    vertx.setTimer(300, timerId -> assertUpdateEvictsOther(context, PORT, async)))))));
+    }
+
+    @Test
+    public void testSubscriptionIsHandedOverOnStop(TestContext context) {
+        final Async async = context.async();
+        int writerPort = OTHER_PORT + 1;
+        JsonObject config = new JsonObject().put("todo.cache.enabled", true).put("todo.cache.ttl", 0);
+        // the first instance holds the subscription of the process, and stops
+        redeploy(context, config, () -> vertx.deployVerticle(new ToDoVerticle(),
+            new DeploymentOptions().setConfig(config.copy().put("todo.cache.ttl", 5000).put("http.port", OTHER_PORT)),
+            context.asyncAssertSuccess(other -> vertx.deployVerticle(new ToDoVerticle(),
+                new DeploymentOptions().setConfig(config.copy().put("http.port", writerPort)), context.asyncAssertSuccess(writer ->
+                    createToDos(context, 1, () -> vertx.undeploy(deploymentId, context.asyncAssertSuccess(undeployed ->
+                        vertx.setTimer(100, timerId -> assertUpdateEvictsOther(context, writerPort, async))))))))));
+    }
+
+    /*
+     * Caches the list on OTHER_PORT, updates todo 1 through the port, and waits for the cached list to be evicted
+     */
+    private void assertUpdateEvictsOther(TestContext context, int port, Async async) {
+        vertx.createHttpClient().getNow(OTHER_PORT, "localhost", "/todo", cached -> cached.bodyHandler(cachedBody ->
+            vertx.createHttpClient().put(port, "localhost", "/todo/1", putResponse -> putResponse.bodyHandler(updated ->
+                awaitListEvicted(context, OTHER_PORT, 50, () ->
+                    vertx.createHttpClient().getNow(OTHER_PORT, "localhost", "/todo", read -> read.bodyHandler(readBody -> {
+                        context.assertEquals("Title changed", readBody.toJsonArray().getJsonObject(0).getString("title"));
+                        async.complete();
+                    })))
+            )).end(new JsonObject().put("title", "Title changed").encode())));
+    }
+
+    @Test
+    public void testConcurrentReadsAreCoalesced(TestContext context) {
+        final Async async = context.async();
+        int requests = 20;
+        createToDos(context, 3, () -> {
+            JsonArray[] bodies = new JsonArray[requests];
+            int[] pending = {requests};
+            for (int i = 0; i < requests; i++) {
+                int request = i;
+                vertx.createHttpClient().getNow(PORT, "localhost", "/todo", response -> response.bodyHandler(body -> {
+                    context.assertEquals(HttpResponseStatus.OK.code(), response.statusCode());
+                    bodies[request] = body.toJsonArray();
+                    if (--pending[0] > 0) {
+                        return;
+                    }
+                    for (JsonArray other : bodies) {
+                        context.assertEquals(bodies[0], other);
+                    }
+                    context.assertEquals(3, bodies[0].size());
+                    vertx.createHttpClient().getNow(PORT, "localhost", "/stats/cache", stats ->
+                        stats.bodyHandler(statsBody -> {
+                            JsonObject coalesced = statsBody.toJsonObject().getJsonObject("coalesced");
+                            context.assertEquals((long) requests, coalesced.getLong("fetches") + coalesced.getLong("joins"));
+                            context.assertTrue(coalesced.getLong("joins") > 0);
+                            async.complete();
+                        }));
+                }));
+            }
+        });
+    }
+
+    @Test
+    public void testConditionalGet(TestContext context) {
+        final Async async = context.async();
+        createToDos(context, 1, () ->
+            vertx.createHttpClient().getNow(PORT, "localhost", "/todo", first -> {
+                String etag = first.headers().get("ETag");
+                context.assertNotNull(etag);
+                vertx.createHttpClient().get(PORT, "localhost", "/todo", unchanged -> {
+                    context.assertEquals(HttpResponseStatus.NOT_MODIFIED.code(), unchanged.statusCode());
+                    context.assertEquals(etag, unchanged.headers().get("ETag"));
+                    vertx.createHttpClient().get(PORT, "localhost", "/todo/1", item -> {
+                        context.assertEquals(HttpResponseStatus.NOT_MODIFIED.code(), item.statusCode());
+                        createToDos(context, 1, () ->
+                            vertx.createHttpClient().get(PORT, "localhost", "/todo", changed -> changed.bodyHandler(body -> {
+                                context.assertEquals(HttpResponseStatus.OK.code(), changed.statusCode());
+                                context.assertNotEquals(etag, changed.headers().get("ETag"));
+                                context.assertEquals(2, body.toJsonArray().size());
+                                async.complete();
+                            })).putHeader("If-None-Match", etag).end());
+                    }).putHeader("If-None-Match", etag).end();
+                }).putHeader("If-None-Match", etag.substring(2)).end();
+            }));
+    }
+
+    @Test
+    public void testLargeResponsesAreCompressed(TestContext context) {
+        final Async async = context.async();
+        JsonObject config = new JsonObject().put("http.compression", true).put("http.compression.min", 200);
+        redeploy(context, config, () -> createToDos(context, 5, () ->
+            vertx.createHttpClient().get(PORT, "localhost", "/todo", list -> list.bodyHandler(body -> {
+                context.assertEquals("gzip", list.headers().get("Content-Encoding"));
+                context.assertEquals("Accept-Encoding", list.headers().get("Vary"));
+                context.assertEquals(5, new JsonArray(gunzip(body).toString()).size());
+                vertx.createHttpClient().get(PORT, "localhost", "/todo/1", item -> item.bodyHandler(itemBody -> {
+                    context.assertNull(item.headers().get("Content-Encoding"));
+                    context.assertEquals("Test entry 0", itemBody.toJsonObject().getString("title"));
+                    redeploy(context, config.copy().put("todo.stream", true), () ->
+                        vertx.createHttpClient().get(PORT, "localhost", "/todo", streamed -> streamed.bodyHandler(streamedBody -> {
+                            context.assertEquals("gzip", streamed.headers().get("Content-Encoding"));
+                            context.assertEquals(5, new JsonArray(gunzip(streamedBody).toString()).size());
+                            async.complete();
+                        })).putHeader("Accept-Encoding", "gzip").end());
+                })).putHeader("Accept-Encoding", "gzip").end();
+            })).putHeader("Accept-Encoding", "deflate;q=0.5, gzip").end()));
+    }
+
+    @Test
+    public void testUpdatesAreWrittenBehind(TestContext context) {
+        final Async async = context.async();
+        RedisClient redis = RedisClient.create(vertx, new RedisOptions());
+        redeploy(context, new JsonObject().put("todo.update.window", 60000), () -> createToDos(context, 1, () ->
+            vertx.createHttpClient().request(HttpMethod.PATCH, PORT, "localhost", "/todo/1", completed ->
+                completed.bodyHandler(completedBody -> {
+                    context.assertTrue(completedBody.toJsonObject().getBoolean("completed"));
+                    vertx.createHttpClient().request(HttpMethod.PATCH, PORT, "localhost", "/todo/1", renamed ->
+                        renamed.bodyHandler(renamedBody -> {
+                            // the second update is answered with both changes merged
+                            context.assertTrue(renamedBody.toJsonObject().getBoolean("completed"));
+                            context.assertEquals("Renamed", renamedBody.toJsonObject().getString("title"));
+                            redis.hgetall("1", context.asyncAssertSuccess(unwritten -> {
+                                context.assertEquals("Test entry 0", unwritten.getString("title"));
+                                vertx.createHttpClient().getNow(PORT, "localhost", "/todo/1", read -> read.bodyHandler(readBody -> {
+                                    context.assertEquals("Renamed", readBody.toJsonObject().getString("title"));
+                                    // stopping writes the merged changes in one update
+                                    vertx.undeploy(deploymentId, context.asyncAssertSuccess(v ->
+                                        redis.hgetall("1", context.asyncAssertSuccess(written -> {
+                                            context.assertEquals("Renamed", written.getString("title"));
+                                            context.assertEquals("true", written.getString("completed"));
+                                            async.complete();
+                                        }))));
+                                }));
+                            }));
+                        })).end(new JsonObject().put("title", "Renamed").encode());
+                })).end(new JsonObject().put("completed", true).encode())));
+    }
+
+    @Test
+    public void testFailedWriteBehindIsRetried(TestContext context) {
+        final Async async = context.async();
+        RedisClient redis = RedisClient.create(vertx, new RedisOptions());
+        redeploy(context, new JsonObject().put("todo.update.window", 300), () -> createToDos(context, 1, () ->
+            vertx.createHttpClient().request(HttpMethod.PATCH, PORT, "localhost", "/todo/1", renamed -> {
+                context.assertEquals(HttpResponseStatus.OK.code(), renamed.statusCode());
+                // an empty string is no packed item, so the update script fails on it until the item is put back
+                redis.rename("1", "1:saved", context.asyncAssertSuccess(saved ->
+                    redis.set("1", "", context.asyncAssertSuccess(broken -> awaitWriteRetried(context, 50, () ->
+                        redis.rename("1:saved", "1", context.asyncAssertSuccess(restored ->
+                            awaitTitle(context, redis, "Renamed", 50, () ->
+                                vertx.createHttpClient().getNow(PORT, "localhost", "/stats/cache", stats ->
+                                    stats.bodyHandler(statsBody -> {
+                                        context.assertEquals(0L, statsBody.toJsonObject()
+                                            .getJsonObject("writeBehind").getLong("dropped"));
+                                        async.complete();
+                                    }))))))))));
+            }).end(new JsonObject().put("title", "Renamed").encode())));
+    }
+
+    /*
+     * Polls the cache stats until a write behind has been retried, failing after the given attempts
+     */
+    private void awaitWriteRetried(TestContext context, int attempts, Runnable onRetried) {
+        vertx.createHttpClient().getNow(PORT, "localhost", "/stats/cache", stats -> stats.bodyHandler(body -> {
+            if (body.toJsonObject().getJsonObject("writeBehind").getLong("retries") > 0) {
+                onRetried.run();
+            } else if (attempts == 0) {
+                context.fail("The failed write was not retried");
+            } else {
+                vertx.setTimer(20, timerId -> awaitWriteRetried(context, attempts - 1, onRetried));
+            }
+        }));
+    }
+
+    /*
+     * Polls redis until todo 1 has the title, failing after the given attempts
+     */
+    private void awaitTitle(TestContext context, RedisClient redis, String title, int attempts, Runnable onWritten) {
+        redis.hget("1", "title", context.asyncAssertSuccess(stored -> {
+            if (title.equals(stored)) {
+                onWritten.run();
+            } else if (attempts == 0) {
+                context.fail("The todo was not written");
+            } else {
+                vertx.setTimer(20, timerId -> awaitTitle(context, redis, title, attempts - 1, onWritten));
+            }
+        }));
+    }
+
+    @Test
+    public void testOverloadIsShed(TestContext context) {
+        final Async async = context.async();
+        int requests = 20;
+        redeploy(context, new JsonObject().put("http.inflight.max", 1).put("http.retryAfter", 2), () ->
+            createToDos(context, 3, () -> {
+                int[] statuses = new int[600];
+                int[] remaining = {requests};
+                for (int i = 0; i < requests; i++) {
+                    vertx.createHttpClient().getNow(PORT, "localhost", "/todo", response -> response.bodyHandler(body -> {
+                        statuses[response.statusCode()]++;
+                        if (response.statusCode() == HttpResponseStatus.SERVICE_UNAVAILABLE.code()) {
+                            context.assertEquals("2", response.headers().get("Retry-After"));
+                        }
+                        if (--remaining[0] > 0) {
+                            return;
+                        }
+                        context.assertTrue(statuses[HttpResponseStatus.OK.code()] > 0);
+                        context.assertTrue(statuses[HttpResponseStatus.SERVICE_UNAVAILABLE.code()] > 0);
+                        // once answered, requests no longer count against the limit
+                        vertx.createHttpClient().getNow(PORT, "localhost", "/todo", after -> {
+                            context.assertEquals(HttpResponseStatus.OK.code(), after.statusCode());
+                            async.complete();
+                        });
+                    }));
+                }
+            }));
+    }
+
+    @Test
+    public void testNestedValuesAreRejected(TestContext context) {
+        final Async async = context.async();
+        // the fields of a nested object must not be read as the todo's own
+        vertx.createHttpClient().post(PORT, "localhost", "/todo", title -> {
+            context.assertEquals(HttpResponseStatus.BAD_REQUEST.code(), title.statusCode());
+            vertx.createHttpClient().post(PORT, "localhost", "/todo", order -> {
+                context.assertEquals(HttpResponseStatus.BAD_REQUEST.code(), order.statusCode());
+                vertx.createHttpClient().getNow(PORT, "localhost", "/todo", list -> list.bodyHandler(body -> {
+                    context.assertEquals(0, body.toJsonArray().size());
+                    async.complete();
+                }));
+            }).end("{\"order\": [1, {\"completed\": true}], \"title\": \"Test entry\"}");
+        }).end("{\"title\": {\"completed\": true}}");
+    }
+
+    @Test
+    public void testMalformedUpdatesReleaseTheirSlot(TestContext context) {
+        final Async async = context.async();
+        int requests = 3;
+        redeploy(context, new JsonObject().put("http.inflight.max", 2), () -> createToDos(context, 1, () -> {
+            int[] remaining = {requests};
+            for (int i = 0; i < requests; i++) {
+                vertx.createHttpClient().request(HttpMethod.PATCH, PORT, "localhost", "/todo/1", response -> {
+                    context.assertEquals(HttpResponseStatus.BAD_REQUEST.code(), response.statusCode());
+                    if (--remaining[0] > 0) {
+                        return;
+                    }
+                    // every rejected update gave its slot back
+                    vertx.createHttpClient().getNow(PORT, "localhost", "/todo", after -> {
+                        context.assertEquals(HttpResponseStatus.OK.code(), after.statusCode());
+                        async.complete();
+                    });
+                }).end("{not json");
+            }
+        }));
+    }
+
+    @Test
+    public void testChangesAreStreamed(TestContext context) {
+        final Async async = context.async();
+        redeploy(context, new JsonObject().put("todo.events", true), () ->
+            vertx.createHttpClient().getNow(PORT, "localhost", "/todo/events", stream -> {
+                context.assertEquals(HttpResponseStatus.OK.code(), stream.statusCode());
+                context.assertTrue(stream.headers().get("content-type").startsWith("text/event-stream"));
+                StringBuilder received = new StringBuilder();
+                stream.handler(chunk -> {
+                    received.append(chunk.toString());
+                    if (!received.toString().contains("event: delete")) {
+                        return;
+                    }
+                    // the todo created in another list was not streamed
+                    String events = received.toString();
+                    context.assertEquals(1, events.split("event: create").length - 1);
+                    context.assertTrue(events.contains("\"title\":\"Streamed\""));
+                    context.assertTrue(events.contains("data: {\"id\":\"1\"}"));
+                    async.complete();
+                });
+                vertx.createHttpClient().post(PORT, "localhost", "/lists/other/todo", other ->
+                    other.bodyHandler(otherBody ->
+                        vertx.createHttpClient().post(PORT, "localhost", "/todo", created ->
+                            created.bodyHandler(createdBody ->
+                                vertx.createHttpClient().delete(PORT, "localhost", "/todo/1", deleted ->
+                                    context.assertEquals(HttpResponseStatus.NO_CONTENT.code(), deleted.statusCode())
+                                ).end()
+                            )
+                        ).end(Json.encode(new ToDoItem("Streamed", false)))
+                    )
+                ).end(Json.encode(new ToDoItem("Elsewhere", false)));
+            }));
+    }
+
+    @Test
+    public void testStreamsAreDisconnectedWhenSubscriptionIsLost(TestContext context) {
+        final Async async = context.async();
+        RedisClient redis = RedisClient.create(vertx, new RedisOptions());
+        redeploy(context, new JsonObject().put("todo.events", true).put("todo.subscribe.check", 50), () ->
+            vertx.createHttpClient().getNow(PORT, "localhost", "/todo/events", stream -> {
+                Async disconnected = context.async();
+                stream.exceptionHandler(e -> {
+                    if (!disconnected.isCompleted()) {
+                        disconnected.complete();
+                    }
+                });
+                stream.endHandler(v -> {
+                    if (!disconnected.isCompleted()) {
+                        disconnected.complete();
+                    }
+                });
+                redis.clientKill(new KillFilter().setType(KillFilter.Type.PUBSUB), context.asyncAssertSuccess(killed ->
+                    disconnected.handler(closed ->
+                        // a client reconnecting is sent the changes again once the subscription is restored
+                        vertx.setTimer(300, timerId -> vertx.createHttpClient().getNow(PORT, "localhost", "/todo/events", again -> {
+                            again.handler(chunk -> {
+                                if (chunk.toString().contains("event: create")) {
+                                    async.complete();
+                                }
+                            });
+                            vertx.createHttpClient().post(PORT, "localhost", "/todo", created -> { })
+                                .end(Json.encode(new ToDoItem("Streamed", false)));
+                        })))));
+            }));
+    }
+
+    @Test
+    public void testCreateToDoAfterScriptFlush(TestContext context) {
+        final Async async = context.async();
+        RedisClient redis = RedisClient.create(vertx, new RedisOptions());
+        redis.scriptFlush(context.asyncAssertSuccess(flushed ->
+            vertx.createHttpClient().post(PORT, "localhost", "/todo", postResponse -> {
+                context.assertEquals(HttpResponseStatus.CREATED.code(), postResponse.statusCode());
+                async.complete();
+            }).end(Json.encode(new ToDoItem("Test entry", false)))
+        ));
+    }
+
+    @Test
+    public void testUpdateMissingToDo(TestContext context) {
+        final Async async = context.async();
+        vertx.createHttpClient().put(PORT, "localhost", "/todo/42", putResponse -> {
+            context.assertEquals(HttpResponseStatus.NOT_FOUND.code(), putResponse.statusCode());
+            vertx.createHttpClient().getNow(PORT, "localhost", "/todo/42", getResponse -> {
+                context.assertEquals(HttpResponseStatus.NOT_FOUND.code(), getResponse.statusCode());
+                async.complete();
+            });
+        }).end(new JsonObject().put("title", "Title changed").encode());
+    }
+
+    @Test
+    public void testCreateToDoIgnoresUnknownFields(TestContext context) {
+        final Async async = context.async();
+        vertx.createHttpClient().post(PORT, "localhost", "/todo", postResponse -> postResponse.bodyHandler(body -> {
+            context.assertEquals(HttpResponseStatus.CREATED.code(), postResponse.statusCode());
+            JsonObject created = body.toJsonObject();
+            context.assertEquals("Test entry", created.getString("title"));
+            context.assertEquals(3, created.getInteger("order"));
+            context.assertFalse(created.containsKey("tags"));
+            vertx.createHttpClient().post(PORT, "localhost", "/todo", badResponse -> {
+                context.assertEquals(HttpResponseStatus.BAD_REQUEST.code(), badResponse.statusCode());
+                async.complete();
+            }).end("[\"not a todo\"]");
+        })).end(new JsonObject().put("title", "Test entry").put("order", 3)
+            .put("tags", new JsonArray().add("home")).encode());
+    }
+
+    @Test
+    public void testMetrics(TestContext context) {
+        final Async async = context.async();
+        createToDos(context, 1, () ->
+            vertx.createHttpClient().getNow(PORT, "localhost", "/todo/1", getResponse -> getResponse.bodyHandler(item ->
+                vertx.createHttpClient().getNow(PORT, "localhost", "/metrics", response -> response.bodyHandler(body -> {
+                    context.assertEquals(HttpResponseStatus.OK.code(), response.statusCode());
+                    String metrics = body.toString();
+                    context.assertTrue(metrics.contains("# TYPE todo_http_request_duration_seconds summary"));
+                    context.assertTrue(metrics.contains(
+                        "todo_http_request_duration_seconds{route=\"GET /todo/:id\",quantile=\"0.99\"}"));
+                    context.assertTrue(metrics.contains("todo_http_requests_in_flight{route=\"GET /todo/:id\"} 0"));
+                    context.assertTrue(metrics.contains(
+                        "todo_redis_command_duration_seconds_count{command=\"EVALSHA create\"}"));
+                    context.assertTrue(metrics.contains("todo_redis_command_errors_total{command=\"HGETALL\"}"));
+                    async.complete();
+                }))
+            )));
+    }
+
+    @Test
+    public void testBulkToDo(TestContext context) {
+        final Async async = context.async();
+        JsonArray operations = new JsonArray()
+            .add(new JsonObject().put("op", "create").put("item", new JsonObject().put("title", "Bulk entry")))
+            .add(new JsonObject().put("op", "update").put("id", "1").put("item", new JsonObject().put("completed", true)))
+            .add(new JsonObject().put("op", "update").put("id", "42").put("item", new JsonObject().put("title", "x")))
+            .add(new JsonObject().put("op", "delete").put("id", "2"))
+            .add(new JsonObject().put("op", "rename"));
+        createToDos(context, 2, () ->
+            vertx.createHttpClient().post(PORT, "localhost", "/todo/_bulk", bulkResponse -> {
+                context.assertEquals(HttpResponseStatus.OK.code(), bulkResponse.statusCode());
+                bulkResponse.bodyHandler(body -> {
+                    JsonArray results = body.toJsonArray();
+                    context.assertEquals(5, results.size());
+
+                    JsonObject created = results.getJsonObject(0);
+                    context.assertEquals(HttpResponseStatus.CREATED.code(), created.getInteger("status"));
+                    context.assertEquals("3", created.getString("id"));
+                    context.assertTrue(created.getJsonObject("item").getString("url").endsWith("/todo/3"));
+
+                    JsonObject updated = results.getJsonObject(1);
+                    context.assertEquals(HttpResponseStatus.OK.code(), updated.getInteger("status"));
+                    context.assertEquals("Test entry 0", updated.getJsonObject("item").getString("title"));
+                    context.assertTrue(updated.getJsonObject("item").getBoolean("completed"));
+
+                    context.assertEquals(HttpResponseStatus.NOT_FOUND.code(), results.getJsonObject(2).getInteger("status"));
+                    context.assertEquals(HttpResponseStatus.NO_CONTENT.code(), results.getJsonObject(3).getInteger("status"));
+                    context.assertEquals(HttpResponseStatus.BAD_REQUEST.code(), results.getJsonObject(4).getInteger("status"));
+
+                    vertx.createHttpClient().getNow(PORT, "localhost", "/todo", getResponse ->
+                        getResponse.bodyHandler(list -> {
+                            JsonArray todos = list.toJsonArray();
+                            context.assertEquals(2, todos.size());
+                            context.assertTrue(todos.getJsonObject(0).getBoolean("completed"));
+                            context.assertEquals("Bulk entry", todos.getJsonObject(1).getString("title"));
+                            async.complete();
+                        }));
+                });
+            }).end(operations.encode())
+        );
+    }
+
+    @Test
+    public void testBulkLoadsScriptsOnceAndSurvivesFlush(TestContext context) {
+        final Async async = context.async();
+        RedisClient redis = RedisClient.create(vertx, new RedisOptions());
+        String bulk = new JsonArray().add(new JsonObject().put("op", "update").put("id", "1")
+            .put("item", new JsonObject().put("completed", true))).encode();
+        JsonObject config = new JsonObject().put("todo.bulk.timeout", 200).put("http.inflight.max", 1);
+        redeploy(context, config, () -> createToDos(context, 1, () ->
+            postBulk(context, bulk, HttpResponseStatus.OK, () -> readCommandCount(context, "SCRIPT LOAD", before ->
+                postBulk(context, bulk, HttpResponseStatus.OK, () -> readCommandCount(context, "SCRIPT LOAD", after -> {
+                    context.assertEquals(before, after);
+                    // the script is gone when the transaction runs, which the client cannot decode
+                    redis.scriptFlush(flushed -> postBulk(context, bulk, HttpResponseStatus.INTERNAL_SERVER_ERROR, () ->
+                        // the failed request gave its slot back, and the script is loaded again
+                        postBulk(context, bulk, HttpResponseStatus.OK, async::complete)));
+                }))))));
+    }
+
+    private void postBulk(TestContext context, String operations, HttpResponseStatus status, Runnable onResponse) {
+        vertx.createHttpClient().post(PORT, "localhost", "/todo/_bulk", response -> {
+            context.assertEquals(status.code(), response.statusCode());
+            response.bodyHandler(body -> onResponse.run());
+        }).end(operations);
+    }
+
+    @Test
+    public void testBulkUpdateRacingDeleteLeavesNoItem(TestContext context) {
+        final Async async = context.async();
+        int items = 20;
+        RedisClient redis = RedisClient.create(vertx, new RedisOptions());
+        createToDos(context, items, () -> {
+            int[] remaining = {2 * items};
+            Runnable onAnswered = () -> {
+                if (--remaining[0] > 0) {
+                    return;
+                }
+                // an update landing after the delete must not write the item back outside the index
+                redis.keys("[0-9]*", context.asyncAssertSuccess(keys -> {
+                    context.assertEquals(new JsonArray(), keys);
+                    async.complete();
+                }));
+            };
+            for (int i = 1; i <= items; i++) {
+                JsonArray update = new JsonArray().add(new JsonObject().put("op", "update").put("id", Integer.toString(i))
+                    .put("item", new JsonObject().put("completed", true)));
+                vertx.createHttpClient().post(PORT, "localhost", "/todo/_bulk", bulkResponse -> bulkResponse.bodyHandler(body -> {
+                    int status = body.toJsonArray().getJsonObject(0).getInteger("status");
+                    context.assertTrue(status == HttpResponseStatus.OK.code() || status == HttpResponseStatus.NOT_FOUND.code());
+                    onAnswered.run();
+                })).end(update.encode());
+                vertx.createHttpClient().delete(PORT, "localhost", "/todo/" + i, deleteResponse -> {
+                    context.assertEquals(HttpResponseStatus.NO_CONTENT.code(), deleteResponse.statusCode());
+                    onAnswered.run();
+                }).end();
+            }
+        });
+    }
+
+
+    private void redeploy(TestContext context, JsonObject config, Runnable onDeployed) {
+        vertx.undeploy(deploymentId, context.asyncAssertSuccess(v ->
+            vertx.deployVerticle(new ToDoVerticle(), new DeploymentOptions().setConfig(config),
+                context.asyncAssertSuccess(id -> {
+                    deploymentId = id;
+                    onDeployed.run();
+                })
+            )
+        ));
+    }
+
+    /*
+     * Polls the cache stats of the instance on the port until it holds no list, failing after the given attempts
+     */
+    private void awaitListEvicted(TestContext context, int port, int attempts, Runnable onEvicted) {
+        vertx.createHttpClient().getNow(port, "localhost", "/stats/cache", stats -> stats.bodyHandler(body -> {
+            if (body.toJsonObject().getJsonObject("lists").getInteger("size") == 0) {
+                onEvicted.run();
+            } else if (attempts == 0) {
+                context.fail("The cached list was not evicted");
+            } else {
+                vertx.setTimer(20, timerId -> awaitListEvicted(context, port, attempts - 1, onEvicted));
+            }
+        }));
+    }
+
+    private void createToDos(TestContext context, int count, Runnable onComplete) {
+        createToDos(context, 0, count, onComplete);
+    }
+
+    private void createToDos(TestContext context, int current, int count, Runnable onComplete) {
+        if (current == count) {
+            onComplete.run();
+            return;
+        }
+        vertx.createHttpClient().post(PORT, "localhost", "/todo", postResponse -> {
+            context.assertEquals(HttpResponseStatus.CREATED.code(), postResponse.statusCode());
+            postResponse.bodyHandler(body -> createToDos(context, current + 1, count, onComplete));
+        }).end(Json.encode(new ToDoItem("Test entry " + current, false)));
+    }
+
+    private Buffer gunzip(Buffer compressed) {
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed.getBytes()))) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] chunk = new byte[1024];
+            for (int read; (read = in.read(chunk)) > 0; ) {
+                out.write(chunk, 0, read);
+            }
+            return Buffer.buffer(out.toByteArray());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
     private ToDoItem toToDoItem(String json) {
         return Json.decodeValue(json, ToDoItem.class);
     }